@@ -0,0 +1,29 @@
+package com.github.ixtf.api.protocol;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * 网关与服务端之间的 event bus 消息头约定
+ *
+ * <p>流式响应：请求头 {@link #STREAM} 表示调用方接受流式响应，取值 {@link #NDJSON_MODE} 或 {@link #OCTET_MODE}；回复头中的
+ * {@link #STREAM} 为拉取地址。拉取的回复头带 {@link #STREAM_END} 表示结束，发送 {@link #STREAM_CANCEL} 取消
+ *
+ * <p>流式上传方向相反：请求头 {@link #UPLOAD} 为网关的拉取地址，回复与流式响应相同
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ApiProtocol {
+  /** 网关自己设置的请求头都以此开头，不接受客户端传入 */
+  public static final String INTERNAL_PREFIX = "x-japp-";
+  public static final String STREAM = "x-japp-stream";
+  public static final String STREAM_END = "x-japp-stream-end";
+  public static final String STREAM_CANCEL = "x-japp-stream-cancel";
+  public static final String UPLOAD = "x-japp-upload";
+  /** 请求方已注册 {@link LocalBufferCodec}，可以以此回复 */
+  public static final String CODEC = "x-japp-codec";
+  public static final String NDJSON_MODE = "ndjson";
+  public static final String OCTET_MODE = "octet";
+  public static final String NDJSON = "application/x-ndjson";
+  /** 每次拉取合并的字节数上限，两个方向相同 */
+  public static final int BATCH_BYTES = 256 * 1024;
+}
@@ -0,0 +1,74 @@
+package com.github.ixtf.api.protocol;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 本地投递时直接传递 Buffer 引用，不像默认的 Buffer codec 那样复制；集群投递时与默认 codec 的编码相同
+ *
+ * <p>发送后不能再修改 Buffer。网关和服务端都以此发送请求体、回复和流式数据块
+ *
+ * <p>集群投递时接收方按名称查找 codec，未注册的节点无法解码。网关在请求头 {@link ApiProtocol#CODEC} 中声明支持，服务端只对带此请求头的请求
+ * （及其流式拉取）以此回复，见 {@link #accepted(MultiMap)}。升级时先升级所有服务，再升级网关：新服务回复旧网关时仍用默认 codec，
+ * 新网关发给旧服务的请求体旧服务无法解码
+ */
+public class LocalBufferCodec implements MessageCodec<Buffer, Buffer> {
+  public static final String NAME = "japp-buffer";
+  private static final Set<Vertx> REGISTERED =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  /** 同一 Vertx 的多个 verticle 实例只注册一次 */
+  public static void register(Vertx vertx) {
+    if (REGISTERED.add(vertx)) {
+      vertx.eventBus().registerCodec(new LocalBufferCodec());
+    }
+  }
+
+  public static DeliveryOptions deliveryOptions() {
+    return new DeliveryOptions().setCodecName(NAME);
+  }
+
+  /** @param headers 请求头，网关声明支持时才以此 codec 回复 */
+  public static boolean accepted(MultiMap headers) {
+    return headers.contains(ApiProtocol.CODEC);
+  }
+
+  /** @return 请求方不支持时为默认 codec */
+  public static DeliveryOptions deliveryOptions(MultiMap headers) {
+    return accepted(headers) ? deliveryOptions() : new DeliveryOptions();
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, Buffer body) {
+    buffer.appendInt(body.length()).appendBuffer(body);
+  }
+
+  @Override
+  public Buffer decodeFromWire(int pos, Buffer buffer) {
+    final var length = buffer.getInt(pos);
+    pos += 4;
+    return buffer.getBuffer(pos, pos + length);
+  }
+
+  @Override
+  public Buffer transform(Buffer body) {
+    return body;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+}
@@ -0,0 +1,96 @@
+package com.github.ixtf.api;
+
+import io.vertx.core.buffer.Buffer;
+import lombok.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.github.ixtf.Constant.MAPPER;
+
+/**
+ * 回复的序列化：writeValueAsBytes 后复制到 Buffer，对比直接写入 Buffer；Blackbird 的方法在单独的 fork 中以
+ * -Djapp.jackson.blackbird=true 运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+  private List<Item> items;
+  private byte[] bytes;
+
+  @Setup
+  public void setup() throws Exception {
+    items = IntStream.range(0, 50).mapToObj(Item::of).toList();
+    bytes = MAPPER.writeValueAsBytes(items);
+  }
+
+  /** 原先的实现 */
+  @Benchmark
+  public Buffer writeValueAsBytes() throws Exception {
+    return Buffer.buffer(MAPPER.writeValueAsBytes(items));
+  }
+
+  @Benchmark
+  public Buffer toBuffer() {
+    return Util.toBuffer(items);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Djapp.jackson.blackbird=true")
+  public Buffer toBufferBlackbird() {
+    return Util.toBuffer(items);
+  }
+
+  @Benchmark
+  public Item[] read() throws Exception {
+    return MAPPER.readValue(bytes, Item[].class);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Djapp.jackson.blackbird=true")
+  public Item[] readBlackbird() throws Exception {
+    return MAPPER.readValue(bytes, Item[].class);
+  }
+
+  @Data
+  public static class Item {
+    private String id;
+    private String name;
+    private String note;
+    private int count;
+    private long version;
+    private double amount;
+    private boolean deleted;
+    private LocalDateTime createDateTime;
+    private List<String> tags;
+
+    static Item of(int i) {
+      final var ret = new Item();
+      ret.setId("id-" + i);
+      ret.setName("name-" + i);
+      ret.setNote("note");
+      ret.setCount(i);
+      ret.setVersion(i * 31L);
+      ret.setAmount(i * 1.5);
+      ret.setCreateDateTime(LocalDateTime.of(2021, 12, 1, 8, 0).plusMinutes(i));
+      ret.setTags(List.of("a", "b"));
+      return ret;
+    }
+  }
+}
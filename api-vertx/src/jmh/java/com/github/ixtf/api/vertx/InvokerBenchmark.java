@@ -0,0 +1,77 @@
+package com.github.ixtf.api.vertx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** 两个参数的 action：Method.invoke、(Object[])Object 的 spreader、固定参数的 Invoker */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+  private final Actions actions = new Actions();
+  private final String context = "x";
+  private Function<String, Object>[] paramFuns;
+  private Method method;
+  private MethodHandle spreader;
+  private Invoker<String> invoker;
+
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() throws Exception {
+    method = Actions.class.getDeclaredMethod("action", String.class, String.class);
+    paramFuns = new Function[] {c -> c, c -> c};
+    spreader =
+        MethodHandles.lookup()
+            .unreflect(method)
+            .bindTo(actions)
+            .asSpreader(Object[].class, 2)
+            .asType(MethodType.methodType(Object.class, Object[].class));
+    invoker = new Invoker<>(actions, method, paramFuns);
+  }
+
+  /** 原先的实现：Stream 解析参数，Method.invoke 调用 */
+  @Benchmark
+  public Object methodInvoke() throws Exception {
+    final var args = Arrays.stream(paramFuns).map(it -> it.apply(context)).toArray();
+    return method.invoke(actions, args);
+  }
+
+  @Benchmark
+  public Object spreader() throws Throwable {
+    final var args = new Object[paramFuns.length];
+    for (var i = 0; i < args.length; i++) {
+      args[i] = paramFuns[i].apply(context);
+    }
+    return spreader.invokeExact(args);
+  }
+
+  @Benchmark
+  public Object invoker() throws Throwable {
+    return invoker.invoke(context);
+  }
+
+  public static class Actions {
+    public String action(String a, String b) {
+      return b;
+    }
+  }
+}
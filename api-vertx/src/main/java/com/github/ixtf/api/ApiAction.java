@@ -9,4 +9,56 @@ public @interface ApiAction {
     String service() default "";
 
     String action();
+
+    /**
+     * 会阻塞的 action 使用 {@link Execution#WORKER}，避免占用 event loop
+     */
+    Execution execution() default Execution.EVENT_LOOP;
+
+    /**
+     * WORKER 时该 action 独占的线程数，0 为 vertx 默认的 worker pool 大小
+     */
+    int workerPoolSize() default 0;
+
+    /**
+     * WORKER 时等待线程的最大请求数，超出时直接回复 503
+     */
+    int maxQueue() default 1000;
+
+    /**
+     * 只读 action 可合并相同请求体的并发调用，只执行一次并把结果回复给所有等待者
+     */
+    Coalesce coalesce() default Coalesce.NONE;
+
+    /**
+     * coalesce 时成功结果的缓存毫秒数，0 不缓存
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * coalesce 时缓存的最大结果数
+     */
+    long cacheSize() default 1000;
+
+    /**
+     * coalesce 时等待 leader 回复的最长毫秒数，超时后新到的请求重新执行；默认与 event bus 的发送超时相同，网关加大 timeout 时应同样加大
+     */
+    long coalesceTimeout() default 30_000;
+
+    enum Execution {
+        EVENT_LOOP,
+        WORKER,
+    }
+
+    enum Coalesce {
+        NONE,
+        /**
+         * 同一用户的相同请求合并
+         */
+        PRINCIPAL,
+        /**
+         * 结果与用户无关，所有用户的相同请求合并
+         */
+        GLOBAL,
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.ixtf.api;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.github.ixtf.J;
 import io.netty.util.AsciiString;
 import io.opentracing.Span;
@@ -35,6 +36,13 @@ public interface ApiContext {
         return checkAndGetCommand(clazz, body());
     }
 
+    /**
+     * @param reader 预先解析的 {@link com.github.ixtf.J#commandReader(Class)}
+     */
+    default <T> T command(ObjectReader reader) {
+        return checkAndGetCommand(reader, body());
+    }
+
     default String header(String key) {
         return headers().get(key);
     }
@@ -0,0 +1,140 @@
+package com.github.ixtf.api;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import lombok.SneakyThrows;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import static com.github.ixtf.Constant.MAPPER;
+
+/**
+ * BSON 直接流式写为 JSON，不经过实体和 Jackson 对象图
+ *
+ * <p>按 BSON 类型写出：各层文档的 _id 写为 id，ObjectId 写为字符串，DATE_TIME 写为毫秒数，二进制写为 base64，null 字段不出现（PojoCodec 不写 null）
+ *
+ * <p>只有字符串、数字、布尔、Date、List 和嵌套对象等属性与 MAPPER 序列化实体的结果相同，以下不同：
+ *
+ * <ul>
+ *   <li>LocalDateTime / LocalDate 在 BSON 中是 DATE_TIME，这里写为毫秒数；MAPPER 写为 [年, 月, 日, ...] 数组
+ *   <li>Instant 同样写为毫秒数；MAPPER 写为秒数的小数
+ *   <li>只看 BSON 字段名，实体上的 {@code @JsonIgnore}、{@code @JsonProperty} 等 Jackson 注解不起作用
+ *   <li>值为 null 的属性不写出；MAPPER 写为 null
+ * </ul>
+ *
+ * <p>依赖上述 Jackson 行为的接口不要返回 BSON
+ *
+ * <p>bson 只在 mongo 存在时才有，调用前需确认 classpath，见 {@link Util#isPresent(String)}
+ */
+public final class BsonJson {
+  private static final JsonFactory FACTORY = MAPPER.getFactory();
+  private static final String ID_COL = "_id";
+
+  private BsonJson() {}
+
+  public static boolean isBson(Object o) {
+    return o instanceof BsonDocument;
+  }
+
+  public static boolean isBsonList(List<?> list) {
+    return !list.isEmpty() && list.get(0) instanceof BsonDocument;
+  }
+
+  @SneakyThrows(IOException.class)
+  public static Buffer toBuffer(Object document) {
+    final var byteBuf = Unpooled.buffer();
+    try (final var generator = FACTORY.createGenerator((OutputStream) new ByteBufOutputStream(byteBuf))) {
+      write(generator, (BsonDocument) document);
+    }
+    return Buffer.buffer(byteBuf);
+  }
+
+  @SneakyThrows(IOException.class)
+  public static Buffer toBuffer(List<?> documents) {
+    final var byteBuf = Unpooled.buffer();
+    try (final var generator = FACTORY.createGenerator((OutputStream) new ByteBufOutputStream(byteBuf))) {
+      generator.writeStartArray();
+      for (final var document : documents) {
+        write(generator, (BsonDocument) document);
+      }
+      generator.writeEndArray();
+    }
+    return Buffer.buffer(byteBuf);
+  }
+
+  private static void write(JsonGenerator generator, BsonDocument document) throws IOException {
+    if (document instanceof final RawBsonDocument raw) {
+      try (final var reader = new BsonBinaryReader(raw.getByteBuffer().asNIO())) {
+        writeDocument(generator, reader);
+      }
+    } else {
+      try (final var reader = new BsonDocumentReader(document)) {
+        writeDocument(generator, reader);
+      }
+    }
+  }
+
+  private static void writeDocument(JsonGenerator generator, BsonReader reader)
+      throws IOException {
+    reader.readStartDocument();
+    generator.writeStartObject();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      final var name = reader.readName();
+      generator.writeFieldName(ID_COL.equals(name) ? "id" : name);
+      writeValue(generator, reader);
+    }
+    reader.readEndDocument();
+    generator.writeEndObject();
+  }
+
+  private static void writeValue(JsonGenerator generator, BsonReader reader) throws IOException {
+    switch (reader.getCurrentBsonType()) {
+      case DOCUMENT -> writeDocument(generator, reader);
+      case ARRAY -> {
+        reader.readStartArray();
+        generator.writeStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+          writeValue(generator, reader);
+        }
+        reader.readEndArray();
+        generator.writeEndArray();
+      }
+      case STRING -> generator.writeString(reader.readString());
+      case OBJECT_ID -> generator.writeString(reader.readObjectId().toHexString());
+      case INT32 -> generator.writeNumber(reader.readInt32());
+      case INT64 -> generator.writeNumber(reader.readInt64());
+      case DOUBLE -> generator.writeNumber(reader.readDouble());
+      case DECIMAL128 -> generator.writeNumber(reader.readDecimal128().bigDecimalValue());
+      case BOOLEAN -> generator.writeBoolean(reader.readBoolean());
+      case DATE_TIME -> generator.writeNumber(reader.readDateTime());
+      case TIMESTAMP -> generator.writeNumber(reader.readTimestamp().getTime() * 1000L);
+      case BINARY -> generator.writeBinary(reader.readBinaryData().getData());
+      case SYMBOL -> generator.writeString(reader.readSymbol());
+      case JAVASCRIPT -> generator.writeString(reader.readJavaScript());
+      case REGULAR_EXPRESSION -> generator.writeString(reader.readRegularExpression().getPattern());
+      case NULL -> {
+        reader.readNull();
+        generator.writeNull();
+      }
+      case UNDEFINED -> {
+        reader.readUndefined();
+        generator.writeNull();
+      }
+      default -> {
+        reader.skipValue();
+        generator.writeNull();
+      }
+    }
+  }
+}
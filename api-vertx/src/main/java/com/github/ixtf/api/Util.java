@@ -5,9 +5,12 @@ import com.github.ixtf.J;
 import com.google.common.io.Resources;
 import com.sun.security.auth.UserPrincipal;
 import graphql.schema.DataFetchingEnvironment;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
 import io.opentracing.propagation.TextMapAdapter;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
@@ -15,6 +18,7 @@ import lombok.SneakyThrows;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.Principal;
 import java.util.Map;
 import java.util.Optional;
@@ -26,6 +30,24 @@ import static java.util.Optional.ofNullable;
 
 public class Util {
 
+  /** 直接编码到 Buffer 底层的 ByteBuf，不经过中间的 byte[] */
+  @SneakyThrows(IOException.class)
+  public static Buffer toBuffer(Object o) {
+    final var byteBuf = Unpooled.buffer();
+    MAPPER.writeValue((OutputStream) new ByteBufOutputStream(byteBuf), o);
+    return Buffer.buffer(byteBuf);
+  }
+
+  /** compileOnly 的依赖运行时不一定存在 */
+  public static boolean isPresent(String className) {
+    try {
+      Class.forName(className, false, Util.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
   public static String service(RoutingContext rc) {
     return rc.pathParam("service");
   }
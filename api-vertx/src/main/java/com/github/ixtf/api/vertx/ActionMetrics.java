@@ -0,0 +1,130 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.exception.JError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.micrometer.backends.BackendRegistries;
+import jakarta.validation.ConstraintViolationException;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 单个 ApiAction / GraphqlAction 的指标，标签 action 为地址，导出到 vertx micrometer 的 Prometheus
+ *
+ * <p>构造时解析所有 meter，记录时不查找、不加锁。执行时间从收到消息到回复，不含 worker 排队，序列化时间单独记录
+ */
+class ActionMetrics {
+  /** 同一地址的多个 verticle 实例共享在途计数，gauge 只能注册一次 */
+  private static final Map<String, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight;
+  private final Timer waitTimer;
+  private final Timer executionTimer;
+  private final Timer serializationTimer;
+  private final DistributionSummary requestSize;
+  private final DistributionSummary responseSize;
+  private final Counter badRequest;
+  private final Counter notImplemented;
+  private final Counter unavailable;
+
+  ActionMetrics(String type, String action) {
+    final MeterRegistry registry =
+        Optional.ofNullable(BackendRegistries.getDefaultNow()).orElse(Metrics.globalRegistry);
+    final var tags = Tags.of("type", type, "action", action);
+    inFlight = IN_FLIGHT.computeIfAbsent(type + ":" + action, k -> new AtomicInteger());
+    Gauge.builder("japp.action.inflight", inFlight, AtomicInteger::get)
+        .tags(tags)
+        .register(registry);
+    waitTimer = timer("japp.action.wait", tags, registry);
+    executionTimer = timer("japp.action.execution", tags, registry);
+    serializationTimer = timer("japp.action.serialization", tags, registry);
+    requestSize = summary("japp.action.request.size", tags, registry);
+    responseSize = summary("japp.action.response.size", tags, registry);
+    badRequest = error(400, tags, registry);
+    notImplemented = error(501, tags, registry);
+    unavailable = error(503, tags, registry);
+  }
+
+  private static Timer timer(String name, Tags tags, MeterRegistry registry) {
+    return Timer.builder(name).tags(tags).publishPercentileHistogram().register(registry);
+  }
+
+  private static DistributionSummary summary(String name, Tags tags, MeterRegistry registry) {
+    return DistributionSummary.builder(name)
+        .baseUnit("bytes")
+        .tags(tags)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private static Counter error(int code, Tags tags, MeterRegistry registry) {
+    return Counter.builder("japp.action.errors")
+        .tags(tags)
+        .tag("code", String.valueOf(code))
+        .register(registry);
+  }
+
+  /** @return 开始时间，传给 {@link #end(long, int)} 或 {@link #fail(long, int)} */
+  long start(Object body) {
+    inFlight.incrementAndGet();
+    if (body instanceof final Buffer v) {
+      requestSize.record(v.length());
+    } else if (body instanceof final byte[] v) {
+      requestSize.record(v.length);
+    } else if (body instanceof final String v) {
+      requestSize.record(v.length());
+    }
+    return System.nanoTime();
+  }
+
+  /** @param size 回复的字节数，小于 0 时不记录（流式回复、graphql） */
+  void end(long start, int size) {
+    executionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    if (size >= 0) {
+      responseSize.record(size);
+    }
+    inFlight.decrementAndGet();
+  }
+
+  void fail(long start, int code) {
+    executionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    error(code);
+    inFlight.decrementAndGet();
+  }
+
+  /** 与 ApiReplyHandler 回复的错误码一致 */
+  static int code(Throwable e) {
+    if (e.getCause() != null) {
+      return code(e.getCause());
+    }
+    return e instanceof JError || e instanceof ConstraintViolationException ? 400 : 501;
+  }
+
+  /** 未执行即拒绝，不计入执行时间和在途数 */
+  void error(int code) {
+    switch (code) {
+      case 400 -> badRequest.increment();
+      case 503 -> unavailable.increment();
+      default -> notImplemented.increment();
+    }
+  }
+
+  /** @param received 收到消息的时间，worker 开始执行时记录排队时间 */
+  void queued(long received) {
+    waitTimer.record(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+  }
+
+  Buffer serialize(Supplier<Buffer> supplier) {
+    return serializationTimer.record(supplier);
+  }
+}
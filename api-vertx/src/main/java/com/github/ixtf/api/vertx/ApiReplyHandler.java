@@ -1,7 +1,12 @@
 package com.github.ixtf.api.vertx;
 
+import com.github.ixtf.J;
 import com.github.ixtf.api.ApiContext;
 import com.github.ixtf.api.ApiResponse;
+import com.github.ixtf.api.BsonJson;
+import com.github.ixtf.api.Util;
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
 import com.github.ixtf.exception.JError;
 import com.google.inject.Inject;
 import io.opentracing.Span;
@@ -9,11 +14,13 @@ import io.opentracing.Tracer;
 import io.opentracing.tag.Tags;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 import jakarta.validation.ConstraintViolationException;
 import jakarta.ws.rs.QueryParam;
 import org.slf4j.Logger;
@@ -24,34 +31,37 @@ import reactor.core.publisher.Mono;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.security.Principal;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
-import static com.github.ixtf.Constant.MAPPER;
 import static com.github.ixtf.guice.GuiceModule.getInstance;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
 
 class ApiReplyHandler implements Handler<Message<Object>> {
+    private static final boolean BSON_PRESENT = Util.isPresent("org.bson.BsonDocument");
+    private final Vertx vertx;
     private final String address;
-    private final Object instance;
     private final Method method;
-    private final Function<ApiContext, Object>[] paramFuns;
+    private final Invoker<ApiContext> invoker;
+    private final ActionMetrics metrics;
     private final Logger instanceLog;
     @Inject
     private Optional<Tracer> tracerOpt;
 
-    ApiReplyHandler(String address, Method method) {
+    ApiReplyHandler(Vertx vertx, String address, Method method, ActionMetrics metrics) {
+        this.vertx = vertx;
         this.method = method;
         this.address = address;
-        paramFuns = paramFuns();
+        this.metrics = metrics;
 
         final var declaringClass = method.getDeclaringClass();
         instanceLog = LoggerFactory.getLogger(declaringClass);
-        instance = getInstance(declaringClass);
+        invoker = new Invoker<>(getInstance(declaringClass), method, paramFuns());
     }
 
-    private static Function<ApiContext, Object> paramFun(Parameter parameter) {
+    private Function<ApiContext, Object> paramFun(Parameter parameter) {
         final var type = parameter.getType();
         if (ApiContext.class.isAssignableFrom(type)) {
             return (Function) Function.identity();
@@ -71,13 +81,17 @@ class ApiReplyHandler implements Handler<Message<Object>> {
         if (byte[].class.isAssignableFrom(type)) {
             return ApiContext::body;
         }
+        if (Flux.class.isAssignableFrom(type)) {
+            return this::bodyStream;
+        }
         if (JsonObject.class.isAssignableFrom(type)) {
             return ctx -> new JsonObject(Buffer.buffer(ctx.body()));
         }
         if (JsonArray.class.isAssignableFrom(type)) {
             return ctx -> new JsonArray(Buffer.buffer(ctx.body()));
         }
-        return ctx -> ctx.command(type);
+        final var reader = J.commandReader(type);
+        return ctx -> ctx.command(reader);
     }
 
     private Function<ApiContext, Object>[] paramFuns() {
@@ -91,65 +105,158 @@ class ApiReplyHandler implements Handler<Message<Object>> {
         return ret;
     }
 
+    /**
+     * Flux&lt;Buffer&gt; 参数：网关流式上传时逐块拉取请求体，否则为整个请求体
+     */
+    private Flux<Buffer> bodyStream(ApiContext ctx) {
+        return Optional.ofNullable(ctx.header(ApiProtocol.UPLOAD))
+                .map(it -> FluxStream.pull(vertx, it))
+                .orElseGet(() -> Flux.just(Buffer.buffer(ctx.body())));
+    }
+
     @Override
     public void handle(Message<Object> reply) {
+        final var start = metrics.start(reply.body());
         final var ctx = new VertxContext(reply, tracerOpt, address);
         final var spanOpt = ctx.spanOpt();
         try {
-            final var objects = Arrays.stream(paramFuns).map(it -> it.apply(ctx)).toArray();
-            final var invoke = method.invoke(instance, objects);
-            onSuccess(reply, invoke, new DeliveryOptions(), spanOpt);
+            onSuccess(reply, invoker.invoke(ctx), new DeliveryOptions(), spanOpt, start);
         } catch (Throwable e) {
-            onFail(reply, e, spanOpt);
+            onFail(reply, e, spanOpt, start);
         }
     }
 
     private void onSuccess(
-            Message<Object> reply, Object o, DeliveryOptions deliveryOptions, Optional<Span> spanOpt) {
-        if (o == null || o instanceof String || o instanceof Buffer || o instanceof byte[]) {
+            Message<Object> reply, Object o, DeliveryOptions deliveryOptions, Optional<Span> spanOpt, long start) {
+        if (o instanceof final Buffer v) {
+            if (LocalBufferCodec.accepted(reply.headers())) {
+                deliveryOptions.setCodecName(LocalBufferCodec.NAME);
+            }
+            reply.reply(v, deliveryOptions);
+            metrics.end(start, v.length());
+            spanOpt.ifPresent(Span::finish);
+        } else if (o instanceof final byte[] v) {
+            onSuccess(reply, Buffer.buffer(v), deliveryOptions, spanOpt, start);
+        } else if (o == null || o instanceof String) {
             reply.reply(o, deliveryOptions);
+            metrics.end(start, o == null ? 0 : ((String) o).length());
             spanOpt.ifPresent(Span::finish);
         } else if (o instanceof final CompletionStage<?> completionStage) {
             completionStage.whenComplete((v, e) -> {
                 if (e != null) {
-                    onFail(reply, e, spanOpt);
+                    onFail(reply, e, spanOpt, start);
                 } else {
-                    onSuccess(reply, v, deliveryOptions, spanOpt);
+                    onSuccess(reply, v, deliveryOptions, spanOpt, start);
                 }
             });
         } else if (o instanceof final Future<?> v) {
             v.onComplete(ar -> {
                 if (ar.failed()) {
-                    onFail(reply, ar.cause(), spanOpt);
+                    onFail(reply, ar.cause(), spanOpt, start);
                 } else {
-                    onSuccess(reply, ar.result(), deliveryOptions, spanOpt);
+                    onSuccess(reply, ar.result(), deliveryOptions, spanOpt, start);
                 }
             });
         } else if (o instanceof final JsonObject v) {
-            onSuccess(reply, v.toBuffer(), deliveryOptions, spanOpt);
+            onSuccess(reply, metrics.serialize(v::toBuffer), deliveryOptions, spanOpt, start);
         } else if (o instanceof final JsonArray v) {
-            onSuccess(reply, v.toBuffer(), deliveryOptions, spanOpt);
+            onSuccess(reply, metrics.serialize(v::toBuffer), deliveryOptions, spanOpt, start);
         } else if (o instanceof final ApiResponse v) {
-            onSuccess(reply, v.getBody(), v.ensure(deliveryOptions), spanOpt);
+            onSuccess(reply, v.getBody(), v.ensure(deliveryOptions), spanOpt, start);
         } else if (o instanceof final Mono v) {
             final Mono<?> mono = v.defaultIfEmpty(Buffer.buffer());
-            mono.subscribe(it -> onSuccess(reply, it, deliveryOptions, spanOpt), e -> onFail(reply, e, spanOpt));
+            mono.subscribe(it -> onSuccess(reply, it, deliveryOptions, spanOpt, start), e -> onFail(reply, e, spanOpt, start));
+        } else if (o instanceof final ReadStream<?> v && reply.headers().contains(ApiProtocol.STREAM)) {
+            onStream(reply, FluxStream.from((ReadStream<Buffer>) v), deliveryOptions, spanOpt, start);
+        } else if (o instanceof final ReadStream<?> v) {
+            final var mono = FluxStream.from((ReadStream<Buffer>) v).reduce(Buffer.buffer(), Buffer::appendBuffer);
+            onSuccess(reply, mono, deliveryOptions, spanOpt, start);
+        } else if (o instanceof final Flux<?> v && reply.headers().contains(ApiProtocol.STREAM)) {
+            onStream(reply, v, deliveryOptions, spanOpt, start);
         } else if (o instanceof final Flux<?> v) {
-            onSuccess(reply, v.collectList().map(JsonArray::new), deliveryOptions, spanOpt);
+            onSuccess(reply, v.collectList().map(it -> metrics.serialize(() -> toBuffer(it))), deliveryOptions, spanOpt, start);
+        } else if (BSON_PRESENT && BsonJson.isBson(o)) {
+            onSuccess(reply, metrics.serialize(() -> BsonJson.toBuffer(o)), deliveryOptions, spanOpt, start);
         } else {
-            onSuccess(reply, Mono.fromCallable(() -> MAPPER.writeValueAsBytes(o)), deliveryOptions, spanOpt);
+            onSuccess(reply, Mono.fromCallable(() -> metrics.serialize(() -> Util.toBuffer(o))), deliveryOptions, spanOpt, start);
+        }
+    }
+
+    /**
+     * 请求头带 {@link ApiProtocol#STREAM} 时 Flux 以 NDJSON 分块拉取，不在内存中收集整个结果；Buffer、byte[] 元素按原样写出，用于大文件下载
+     *
+     * <p>执行时间记录到开始回复拉取地址为止
+     */
+    private void onStream(Message<Object> reply, Flux<?> flux, DeliveryOptions deliveryOptions, Optional<Span> spanOpt, long start) {
+        final Handler<Throwable> onTerminate = e -> {
+            if (e == null) {
+                spanOpt.ifPresent(Span::finish);
+            } else {
+                instanceLog.error(address, e);
+                spanOpt.ifPresent(span -> span.setTag(Tags.ERROR, true).log(e.getMessage()).finish());
+            }
+        };
+        FluxStream.start(vertx, address, flux.map(this::toChunk), onTerminate).onComplete(ar -> {
+            if (ar.failed()) {
+                onFail(reply, ar.cause(), spanOpt, start);
+            } else {
+                deliveryOptions.addHeader(ApiProtocol.STREAM, ar.result());
+                final var headers = deliveryOptions.getHeaders();
+                // 下载时网关已设置 application/octet-stream
+                if (ApiProtocol.NDJSON_MODE.equals(reply.headers().get(ApiProtocol.STREAM)) && (headers == null || !headers.contains(CONTENT_TYPE))) {
+                    deliveryOptions.addHeader(CONTENT_TYPE.toString(), ApiProtocol.NDJSON);
+                }
+                reply.reply(null, deliveryOptions);
+                metrics.end(start, -1);
+            }
+        });
+    }
+
+    private Buffer toChunk(Object o) {
+        if (o instanceof final Buffer v) {
+            return v;
+        }
+        if (o instanceof final byte[] v) {
+            return Buffer.buffer(v);
+        }
+        return toLine(o);
+    }
+
+    private Buffer toLine(Object o) {
+        final Buffer buffer;
+        if (BSON_PRESENT && BsonJson.isBson(o)) {
+            buffer = BsonJson.toBuffer(o);
+        } else if (o instanceof final JsonObject v) {
+            buffer = v.toBuffer();
+        } else if (o instanceof final JsonArray v) {
+            buffer = v.toBuffer();
+        } else {
+            buffer = Util.toBuffer(o);
+        }
+        return buffer.appendByte((byte) '\n');
+    }
+
+    /**
+     * BSON 文档直接写为 JSON，不经过 JsonArray
+     */
+    private Buffer toBuffer(List<?> list) {
+        if (BSON_PRESENT && BsonJson.isBsonList(list)) {
+            return BsonJson.toBuffer(list);
         }
+        return new JsonArray(list).toBuffer();
     }
 
-    private void onFail(Message<Object> reply, Throwable e, Optional<Span> spanOpt) {
+    private void onFail(Message<Object> reply, Throwable e, Optional<Span> spanOpt, long start) {
         spanOpt.ifPresent(span -> span.setTag(Tags.ERROR, true));
         if (e.getCause() != null) {
-            onFail(reply, e.getCause(), spanOpt);
+            onFail(reply, e.getCause(), spanOpt, start);
         } else if (e instanceof JError || e instanceof ConstraintViolationException) {
             reply.fail(400, e.getMessage());
+            metrics.fail(start, 400);
             spanOpt.ifPresent(Span::finish);
         } else {
             reply.fail(501, e.getMessage());
+            metrics.fail(start, 501);
             instanceLog.error(address, e);
             spanOpt.ifPresent(span -> span.log(e.getMessage()).finish());
         }
@@ -0,0 +1,171 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.ixtf.api.ApiAction;
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相同 (用户, 请求体) 的并发调用只执行一次，结果回复给所有等待的消息；可选短时缓存成功的结果
+ *
+ * <p>同一地址的多个 verticle 实例共享合并状态。合并后的调用不走流式回复，Flux 收集为数组；流式上传的请求体不在消息中，不合并
+ *
+ * <p>leader 在 {@link ApiAction#coalesceTimeout()} 内未回复时移除该组，之后的请求另选 leader 执行，不会一直等待不回复的调用
+ */
+class CoalescingReplyHandler implements Handler<Message<Object>> {
+  private static final Map<String, State> STATES = new ConcurrentHashMap<>();
+  private final Vertx vertx;
+  private final Handler<Message<Object>> delegate;
+  private final boolean principalScope;
+  private final long timeout;
+  private final State state;
+
+  CoalescingReplyHandler(
+      Vertx vertx, String address, ApiAction annotation, Handler<Message<Object>> delegate) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    principalScope = annotation.coalesce() == ApiAction.Coalesce.PRINCIPAL;
+    timeout = Math.max(annotation.coalesceTimeout(), 1);
+    state = STATES.computeIfAbsent(address, k -> new State(annotation));
+  }
+
+  @Override
+  public void handle(Message<Object> message) {
+    if (message.headers().contains(ApiProtocol.UPLOAD)) {
+      delegate.handle(message);
+      return;
+    }
+    final var key = key(message);
+    final var cached = state.cacheOpt.map(it -> it.getIfPresent(key));
+    if (cached.isPresent()) {
+      reply(message, cached.get().body, cached.get().deliveryOptions);
+      return;
+    }
+    final var group = state.groups.compute(key, (k, v) -> v == null ? new Group(k, message) : v.join(message));
+    if (group.leader == message) {
+      group.timerId = vertx.setTimer(timeout, id -> state.groups.remove(key, group));
+      delegate.handle(group);
+    }
+  }
+
+  /** 结果可能以 leader 声明的 codec 回复，其他请求方未声明时改用默认 codec */
+  private static void reply(Message<Object> message, Object body, DeliveryOptions options) {
+    if (LocalBufferCodec.NAME.equals(options.getCodecName())
+        && !LocalBufferCodec.accepted(message.headers())) {
+      message.reply(body, new DeliveryOptions(options).setCodecName(null));
+    } else {
+      message.reply(body, options);
+    }
+  }
+
+  private Key key(Message<Object> message) {
+    final var principal = principalScope ? message.headers().get(Principal.class.getName()) : null;
+    final var body = new VertxContext(message, Optional.empty()).body();
+    return new Key(principal, ByteBuffer.wrap(body));
+  }
+
+  private static class State {
+    private final Map<Key, Group> groups = new ConcurrentHashMap<>();
+    private final Optional<Cache<Key, Result>> cacheOpt;
+
+    private State(ApiAction annotation) {
+      cacheOpt =
+          Optional.of(annotation.cacheTtl())
+              .filter(it -> it > 0)
+              .map(
+                  ttl ->
+                      Caffeine.newBuilder()
+                          .maximumSize(annotation.cacheSize())
+                          .expireAfterWrite(Duration.ofMillis(ttl))
+                          .build());
+    }
+  }
+
+  /**
+   * 请求体按内容比较，不用 hash 代替，避免冲突时回复错误的结果
+   */
+  private record Key(String principal, ByteBuffer body) {}
+
+  private record Result(Object body, DeliveryOptions deliveryOptions) {}
+
+  /**
+   * 交给 {@link ApiReplyHandler} 执行的 leader，回复时分发给组内所有消息
+   */
+  private class Group implements Message<Object> {
+    private final Key key;
+    private final Message<Object> leader;
+    private final List<Message<Object>> members = new ArrayList<>();
+    private final MultiMap headers;
+    private volatile long timerId = -1;
+
+    private Group(Key key, Message<Object> leader) {
+      this.key = key;
+      this.leader = leader;
+      members.add(leader);
+      headers = MultiMap.caseInsensitiveMultiMap().addAll(leader.headers()).remove(ApiProtocol.STREAM);
+    }
+
+    private Group join(Message<Object> message) {
+      members.add(message);
+      return this;
+    }
+
+    @Override
+    public void reply(Object message, DeliveryOptions options) {
+      // 移除后新到的请求重新执行，members 不再变化
+      state.groups.remove(key, this);
+      vertx.cancelTimer(timerId);
+      if (!(message instanceof ReplyException)) {
+        state.cacheOpt.ifPresent(it -> it.put(key, new Result(message, options)));
+      }
+      members.forEach(it -> CoalescingReplyHandler.reply(it, message, options));
+    }
+
+    @Override
+    public String address() {
+      return leader.address();
+    }
+
+    @Override
+    public MultiMap headers() {
+      return headers;
+    }
+
+    @Override
+    public Object body() {
+      return leader.body();
+    }
+
+    @Override
+    public String replyAddress() {
+      return leader.replyAddress();
+    }
+
+    @Override
+    public boolean isSend() {
+      return leader.isSend();
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object message, DeliveryOptions options) {
+      return Future.failedFuture(new UnsupportedOperationException("coalesced reply"));
+    }
+  }
+}
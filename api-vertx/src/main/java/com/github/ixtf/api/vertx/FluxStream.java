@@ -0,0 +1,267 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.streams.ReadStream;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import static com.github.ixtf.api.protocol.ApiProtocol.BATCH_BYTES;
+import static com.github.ixtf.api.protocol.ApiProtocol.CODEC;
+import static com.github.ixtf.api.protocol.ApiProtocol.STREAM_CANCEL;
+import static com.github.ixtf.api.protocol.ApiProtocol.STREAM_END;
+
+/**
+ * Flux 结果按需拉取：网关每拉取一次回复一块 NDJSON，写入 http 响应后再拉取下一块，内存占用与结果大小无关
+ *
+ * <p>消息头的约定见 {@link ApiProtocol}：/api 只在客户端 Accept 声明 {@link ApiProtocol#NDJSON} 时带 {@link
+ * ApiProtocol#NDJSON_MODE}，下载始终为 {@link ApiProtocol#OCTET_MODE}
+ *
+ * <p>上传方向相反：请求头 {@link ApiProtocol#UPLOAD} 为网关的拉取地址，由 {@link #pull(Vertx, String)} 逐块读取请求体
+ */
+class FluxStream extends BaseSubscriber<Buffer> implements Handler<Message<Object>> {
+  /** 每次拉取合并的行数，字节数上限为 {@link ApiProtocol#BATCH_BYTES}，二进制块较大时按字节切分 */
+  private static final int BATCH = 100;
+  /** 网关不再拉取时释放订阅 */
+  private static final long IDLE_TIMEOUT = Duration.ofMinutes(1).toMillis();
+
+  private final Vertx vertx;
+  private final MessageConsumer<Object> consumer;
+  private final Handler<Throwable> onTerminate;
+  private Message<Object> pending;
+  private boolean completed;
+  private Throwable error;
+  private boolean terminated;
+  /** timer id 从 0 开始，未设置时不能取消 0，否则会取消别人的 timer，例如请求的回复超时 */
+  private long timerId = -1;
+
+  private FluxStream(Vertx vertx, String address, Handler<Throwable> onTerminate) {
+    this.vertx = vertx;
+    this.onTerminate = onTerminate;
+    consumer = vertx.eventBus().consumer(address, this);
+  }
+
+  /**
+   * @param lines 每个元素为一行 NDJSON 或一块二进制数据
+   * @param onTerminate 结束、出错、取消或超时后调用一次，正常结束参数为 null
+   * @return 拉取地址，注册完成后才返回
+   */
+  static Future<String> start(
+      Vertx vertx, String address, Flux<Buffer> lines, Handler<Throwable> onTerminate) {
+    final var stream =
+        new FluxStream(vertx, address + ":stream:" + UUID.randomUUID(), onTerminate);
+    return Future.<Void>future(stream.consumer::completionHandler)
+        .map(
+            __ -> {
+              lines.bufferUntil(batch()).map(FluxStream::concat).subscribe(stream);
+              stream.resetTimer();
+              return stream.consumer.address();
+            });
+  }
+
+  /**
+   * 拉取网关的请求体，下游请求时才拉取下一块，不在内存中缓存整个请求体
+   *
+   * @param address 请求头 {@link ApiProtocol#UPLOAD}
+   */
+  static Flux<Buffer> pull(Vertx vertx, String address) {
+    return Flux.create(
+        sink -> {
+          final var puller = new Puller(vertx, address, sink);
+          sink.onRequest(__ -> puller.pull());
+          sink.onCancel(puller::cancel);
+        });
+  }
+
+  /**
+   * ReadStream 按下游的请求量读取，例如 {@link io.vertx.core.file.AsyncFile}
+   */
+  static Flux<Buffer> from(ReadStream<Buffer> readStream) {
+    return Flux.create(
+        sink -> {
+          readStream.pause();
+          readStream
+              .handler(sink::next)
+              .exceptionHandler(sink::error)
+              .endHandler(__ -> sink.complete());
+          sink.onRequest(readStream::fetch);
+          sink.onCancel(readStream::pause);
+          if (readStream instanceof final AsyncFile asyncFile) {
+            sink.onDispose(asyncFile::close);
+          }
+        });
+  }
+
+  private static Predicate<Buffer> batch() {
+    return new Predicate<>() {
+      private int count;
+      private long bytes;
+
+      @Override
+      public boolean test(Buffer buffer) {
+        bytes += buffer.length();
+        if (++count < BATCH && bytes < BATCH_BYTES) {
+          return false;
+        }
+        count = 0;
+        bytes = 0;
+        return true;
+      }
+    };
+  }
+
+  private static Buffer concat(Iterable<Buffer> lines) {
+    final var ret = Buffer.buffer();
+    lines.forEach(ret::appendBuffer);
+    return ret;
+  }
+
+  @Override
+  public synchronized void handle(Message<Object> message) {
+    if (terminated) {
+      message.fail(410, "stream terminated");
+    } else if (message.headers().contains(STREAM_CANCEL)) {
+      dispose();
+      message.reply(null);
+      terminate(null);
+    } else if (pending != null) {
+      message.fail(409, "pull in progress");
+    } else if (error != null) {
+      message.fail(500, error.getMessage());
+      terminate(error);
+    } else if (completed) {
+      message.reply(null, new DeliveryOptions().addHeader(STREAM_END, "1"));
+      terminate(null);
+    } else {
+      resetTimer();
+      pending = message;
+      request(1);
+    }
+  }
+
+  @Override
+  protected void hookOnSubscribe(Subscription subscription) {
+    // 等待网关拉取
+  }
+
+  @Override
+  protected synchronized void hookOnNext(Buffer chunk) {
+    final var message = pending;
+    pending = null;
+    message.reply(chunk, LocalBufferCodec.deliveryOptions(message.headers()));
+  }
+
+  @Override
+  protected synchronized void hookOnComplete() {
+    completed = true;
+    if (pending != null) {
+      pending.reply(null, new DeliveryOptions().addHeader(STREAM_END, "1"));
+      pending = null;
+      terminate(null);
+    }
+  }
+
+  @Override
+  protected synchronized void hookOnError(Throwable e) {
+    error = e;
+    if (pending != null) {
+      pending.fail(500, e.getMessage());
+      pending = null;
+      terminate(e);
+    }
+  }
+
+  private void cancelTimer() {
+    if (timerId >= 0) {
+      vertx.cancelTimer(timerId);
+      timerId = -1;
+    }
+  }
+
+  private void resetTimer() {
+    cancelTimer();
+    timerId =
+        vertx.setTimer(
+            IDLE_TIMEOUT,
+            __ -> {
+              synchronized (this) {
+                if (!terminated) {
+                  dispose();
+                  terminate(new TimeoutException("stream idle"));
+                }
+              }
+            });
+  }
+
+  private void terminate(Throwable e) {
+    if (!terminated) {
+      terminated = true;
+      cancelTimer();
+      consumer.unregister();
+      onTerminate.handle(e);
+    }
+  }
+
+  /** 同一时刻只有一个拉取请求在途 */
+  private static class Puller {
+    private final Vertx vertx;
+    private final String address;
+    private final FluxSink<Buffer> sink;
+    private boolean inFlight;
+    private boolean done;
+
+    private Puller(Vertx vertx, String address, FluxSink<Buffer> sink) {
+      this.vertx = vertx;
+      this.address = address;
+      this.sink = sink;
+    }
+
+    private synchronized void pull() {
+      if (inFlight || done || sink.isCancelled() || sink.requestedFromDownstream() <= 0) {
+        return;
+      }
+      inFlight = true;
+      vertx
+          .eventBus()
+          .<Buffer>request(address, null, new DeliveryOptions().addHeader(CODEC, "1"), this::onPulled);
+    }
+
+    private void onPulled(AsyncResult<Message<Buffer>> ar) {
+      synchronized (this) {
+        inFlight = false;
+        done = ar.failed() || ar.result().headers().contains(STREAM_END);
+      }
+      if (ar.failed()) {
+        sink.error(ar.cause());
+      } else if (ar.result().headers().contains(STREAM_END)) {
+        sink.complete();
+      } else {
+        sink.next(ar.result().body());
+        pull();
+      }
+    }
+
+    private synchronized void cancel() {
+      if (!done) {
+        done = true;
+        vertx.eventBus().send(address, null, new DeliveryOptions().addHeader(STREAM_CANCEL, "1"));
+      }
+    }
+  }
+}
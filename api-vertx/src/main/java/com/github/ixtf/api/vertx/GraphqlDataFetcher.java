@@ -7,6 +7,7 @@ import graphql.schema.DataFetchingEnvironment;
 import io.vertx.core.Future;
 import io.vertx.ext.web.handler.graphql.schema.VertxDataFetcher;
 import jakarta.ws.rs.QueryParam;
+import lombok.SneakyThrows;
 import org.apache.commons.lang3.tuple.Pair;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -14,8 +15,8 @@ import reactor.core.publisher.Mono;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.security.Principal;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -25,16 +26,16 @@ import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toUnmodifiableSet;
 
 public class GraphqlDataFetcher implements DataFetcher<Object> {
-  private final Object instance;
-  private final Method method;
-  private final Function<DataFetchingEnvironment, Object>[] paramFuns;
+  private final Invoker<DataFetchingEnvironment> invoker;
   private final Function<Object, Object> retFun;
+  private final ActionMetrics metrics;
 
   private GraphqlDataFetcher(Method method) {
-    this.method = method;
-    paramFuns = paramFuns(method);
+    final var annotation = method.getAnnotation(GraphqlAction.class);
+    metrics =
+        new ActionMetrics("graphql", String.join(":", annotation.type().name(), annotation.action()));
     retFun = retFun(method);
-    instance = getInstance(method.getDeclaringClass());
+    invoker = new Invoker<>(getInstance(method.getDeclaringClass()), method, paramFuns(method));
   }
 
   public static Collection<Pair<GraphqlAction, ? extends DataFetcher>> generate(
@@ -122,10 +123,28 @@ public class GraphqlDataFetcher implements DataFetcher<Object> {
     return Function.identity();
   }
 
+  @SneakyThrows
   @Override
-  public Object get(DataFetchingEnvironment env) throws Exception {
-    final var objects = Arrays.stream(paramFuns).map(it -> it.apply(env)).toArray();
-    final var invoke = method.invoke(instance, objects);
-    return retFun.apply(invoke);
+  public Object get(DataFetchingEnvironment env) {
+    final var start = metrics.start(null);
+    final Object ret;
+    try {
+      ret = retFun.apply(invoker.invoke(env));
+    } catch (Throwable e) {
+      metrics.fail(start, ActionMetrics.code(e));
+      throw e;
+    }
+    if (ret instanceof final CompletionStage<?> completionStage) {
+      return completionStage.whenComplete(
+          (v, e) -> {
+            if (e == null) {
+              metrics.end(start, -1);
+            } else {
+              metrics.fail(start, ActionMetrics.code(e));
+            }
+          });
+    }
+    metrics.end(start, -1);
+    return ret;
   }
 }
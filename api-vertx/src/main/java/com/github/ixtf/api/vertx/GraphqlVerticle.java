@@ -23,6 +23,7 @@ import io.vertx.ext.web.handler.graphql.impl.GraphQLBatch;
 import io.vertx.ext.web.handler.graphql.impl.GraphQLInput;
 import io.vertx.ext.web.handler.graphql.impl.GraphQLQuery;
 import lombok.extern.slf4j.Slf4j;
+import org.dataloader.DataLoaderRegistry;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -35,6 +36,7 @@ import static java.util.Optional.ofNullable;
 
 @Slf4j
 public class GraphqlVerticle extends AbstractVerticle implements Handler<Message<Buffer>> {
+    private static final boolean JMONGO_PRESENT = Util.isPresent("com.github.ixtf.mongo.JmongoRef");
     @Named(GRAPHQL_ADDRESS)
     @Inject
     private String address;
@@ -43,6 +45,17 @@ public class GraphqlVerticle extends AbstractVerticle implements Handler<Message
     @Inject
     private Optional<Tracer> tracerOpt;
 
+    /**
+     * 每次执行新建，DataLoader 的缓存只在一次请求内有效
+     */
+    protected DataLoaderRegistry dataLoaderRegistry() {
+        final var registry = new DataLoaderRegistry();
+        if (JMONGO_PRESENT) {
+            registry.register(JmongoRefDataLoader.KEY, JmongoRefDataLoader.create());
+        }
+        return registry;
+    }
+
     protected Optional<Span> spanOpt(Message<Buffer> reply) {
         final var builder = ImmutableMap.<String, String>builder();
         reply.headers().forEach(entry -> builder.put(entry.getKey(), entry.getValue()));
@@ -115,6 +128,7 @@ public class GraphqlVerticle extends AbstractVerticle implements Handler<Message
             ofNullable(query.getOperationName()).filter(J::nonBlank).ifPresent(builder::operationName);
             ofNullable(query.getVariables()).ifPresent(builder::variables);
             builder.graphQLContext(ctx -> reply.headers().forEach(entry -> ctx.of(entry.getKey(), entry.getValue())));
+            builder.dataLoaderRegistry(dataLoaderRegistry());
             return builder;
         });
 //        return graphQL.execute(builder -> {
@@ -0,0 +1,62 @@
+package com.github.ixtf.api.vertx;
+
+import lombok.SneakyThrows;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+
+/**
+ * 启动时把 action 方法绑定为 MethodHandle，调用时不经过 Method.invoke，参数解析不创建 Stream
+ *
+ * <p>不超过 {@link #MAX_EXACT_ARITY} 个参数时绑定为 (Object...)Object 的固定参数形式，调用不分配参数数组；更多参数时绑定为
+ * (Object[])Object
+ *
+ * @param <C> 参数的来源，如 ApiContext、DataFetchingEnvironment
+ */
+final class Invoker<C> {
+  static final int MAX_EXACT_ARITY = 3;
+  private static final MethodType SPREAD_TYPE =
+      MethodType.methodType(Object.class, Object[].class);
+  private final Function<C, Object>[] paramFuns;
+  private final MethodHandle handle;
+
+  @SneakyThrows(IllegalAccessException.class)
+  Invoker(Object instance, Method method, Function<C, Object>[] paramFuns) {
+    this.paramFuns = paramFuns;
+    method.setAccessible(true);
+    var handle = MethodHandles.lookup().unreflect(method);
+    if (!Modifier.isStatic(method.getModifiers())) {
+      handle = handle.bindTo(instance);
+    }
+    final var arity = paramFuns.length;
+    this.handle =
+        arity <= MAX_EXACT_ARITY
+            ? handle.asType(MethodType.genericMethodType(arity))
+            : handle.asSpreader(Object[].class, arity).asType(SPREAD_TYPE);
+  }
+
+  /** 方法抛出的异常原样抛出，不再包装为 InvocationTargetException */
+  Object invoke(C c) throws Throwable {
+    final var funs = paramFuns;
+    switch (funs.length) {
+      case 0:
+        return handle.invokeExact();
+      case 1:
+        return handle.invokeExact(funs[0].apply(c));
+      case 2:
+        return handle.invokeExact(funs[0].apply(c), funs[1].apply(c));
+      case 3:
+        return handle.invokeExact(funs[0].apply(c), funs[1].apply(c), funs[2].apply(c));
+      default:
+        final var args = new Object[funs.length];
+        for (var i = 0; i < funs.length; i++) {
+          args[i] = funs[i].apply(c);
+        }
+        return handle.invokeExact(args);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.mongo.Jmongo;
+import com.github.ixtf.mongo.JmongoRef;
+import com.github.ixtf.mongo.MongoEntityBase;
+import graphql.schema.DataFetchingEnvironment;
+import org.bson.BsonDocument;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.ixtf.guice.GuiceModule.getInstance;
+
+/**
+ * 同一次 graphql 请求中的 {@link JmongoRef} 合并为每个集合一次 $in 查询
+ *
+ * <p>mongo 为 compileOnly 依赖，只在 classpath 中存在 mongo 时由 {@link GraphqlVerticle} 注册
+ *
+ * <p>graphql-java 按层级 dispatch：{@link #load} 必须在 DataFetcher#get 中同步调用，之后本层结束时统一查询。
+ * 在异步回调（thenCompose、Mono 等）中调用时本层已经 dispatch 过，不会再查询，返回的 future 永远不会完成；这种情况使用
+ * {@link #loadNow}
+ */
+public final class JmongoRefDataLoader {
+  public static final String KEY = "com.github.ixtf.mongo.JmongoRef";
+
+  private JmongoRefDataLoader() {}
+
+  public static DataLoader<JmongoRef, BsonDocument> create() {
+    return DataLoaderFactory.newMappedDataLoader(
+        refs -> getInstance(Jmongo.class).find(refs).toFuture());
+  }
+
+  /** 只能在 DataFetcher#get 中同步调用，见类注释 */
+  public static <T extends MongoEntityBase> CompletableFuture<T> load(
+      DataFetchingEnvironment env, JmongoRef ref, Class<T> clazz) {
+    return load(env, ref, clazz, false);
+  }
+
+  /** 加入批次后立即 dispatch，可在异步回调中调用，只与已在等待的 ref 合并 */
+  public static <T extends MongoEntityBase> CompletableFuture<T> loadNow(
+      DataFetchingEnvironment env, JmongoRef ref, Class<T> clazz) {
+    return load(env, ref, clazz, true);
+  }
+
+  private static <T extends MongoEntityBase> CompletableFuture<T> load(
+      DataFetchingEnvironment env, JmongoRef ref, Class<T> clazz, boolean dispatch) {
+    if (ref == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    final DataLoader<JmongoRef, BsonDocument> dataLoader = env.getDataLoader(KEY);
+    final var future = dataLoader.load(ref);
+    if (dispatch) {
+      dataLoader.dispatch();
+    }
+    return future.thenApply(
+        it -> it == null ? null : getInstance(Jmongo.class).fromBsonDocument(it, clazz));
+  }
+}
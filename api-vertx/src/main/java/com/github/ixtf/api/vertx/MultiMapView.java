@@ -0,0 +1,64 @@
+package com.github.ixtf.api.vertx;
+
+import io.vertx.core.MultiMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 消息头的只读视图，不区分大小写，同名的取第一个值；不复制消息头
+ */
+class MultiMapView extends AbstractMap<String, String> {
+  private final MultiMap headers;
+
+  MultiMapView(MultiMap headers) {
+    this.headers = headers;
+  }
+
+  @Override
+  public String get(Object key) {
+    return key instanceof final String name ? headers.get(name) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof final String name && headers.contains(name);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return headers.isEmpty();
+  }
+
+  /** 遍历较少（例如提取 trace），按名称遍历以保持 Map 的语义 */
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    final var names = headers.names();
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        final var iterator = names.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            final var name = iterator.next();
+            return Map.entry(name, headers.get(name));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return names.size();
+      }
+    };
+  }
+}
@@ -2,15 +2,20 @@ package com.github.ixtf.api.vertx;
 
 import com.github.ixtf.J;
 import com.github.ixtf.api.ApiAction;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
+import io.vertx.core.eventbus.Message;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static com.github.ixtf.api.guice.ApiModule.ACTIONS;
@@ -33,6 +38,7 @@ public class ServiceServerVerticle extends AbstractVerticle {
   @Override
   public void start(Promise<Void> startPromise) {
     injectMembers(this);
+    LocalBufferCodec.register(vertx);
     methods.stream()
         .map(this::consumer)
         .collect(collectingAndThen(toUnmodifiableList(), CompositeFuture::all))
@@ -48,7 +54,27 @@ public class ServiceServerVerticle extends AbstractVerticle {
               ofNullable(annotation.service()).filter(J::nonBlank).orElse(this.service);
           final var action = annotation.action();
           final var address = String.join(":", service, action);
-          final var handler = injectMembers(new ApiReplyHandler(address, method));
+          final var metrics = new ActionMetrics("api", address);
+          final var replyHandler =
+              injectMembers(new ApiReplyHandler(vertx, address, method, metrics));
+          final Handler<Message<Object>> executeHandler =
+              switch (annotation.execution()) {
+                case WORKER -> new WorkerReplyHandler(
+                    vertx, address, annotation, metrics, replyHandler);
+                default -> replyHandler;
+              };
+          // 先合并再排队，重复的请求不占用 worker
+          final Handler<Message<Object>> coalescingHandler =
+              switch (annotation.coalesce()) {
+                case NONE -> executeHandler;
+                default -> new CoalescingReplyHandler(
+                    vertx, address, annotation, executeHandler);
+              };
+          // 没有 Flux<Buffer> 参数时不能逐块读取，上传的请求体先拉取完整
+          final Handler<Message<Object>> handler =
+              Arrays.stream(method.getParameterTypes()).anyMatch(Flux.class::isAssignableFrom)
+                  ? coalescingHandler
+                  : new UploadBodyHandler(vertx, metrics, coalescingHandler);
           final var consumer = vertx.eventBus().consumer(address).handler(handler);
           consumer.completionHandler(p);
         });
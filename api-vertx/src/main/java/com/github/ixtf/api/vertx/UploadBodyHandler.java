@@ -0,0 +1,94 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.protocol.ApiProtocol;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+/**
+ * 网关流式上传，但 action 没有 Flux&lt;Buffer&gt; 参数时，先拉取整个请求体再交给 delegate，action 看到的与普通请求一致
+ *
+ * <p>在合并和 worker 排队之前拉取：合并按完整的请求体比较，拉取不占用 worker
+ */
+class UploadBodyHandler implements Handler<Message<Object>> {
+  private final Vertx vertx;
+  private final ActionMetrics metrics;
+  private final Handler<Message<Object>> delegate;
+
+  UploadBodyHandler(Vertx vertx, ActionMetrics metrics, Handler<Message<Object>> delegate) {
+    this.vertx = vertx;
+    this.metrics = metrics;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void handle(Message<Object> message) {
+    final var upload = message.headers().get(ApiProtocol.UPLOAD);
+    if (upload == null) {
+      delegate.handle(message);
+      return;
+    }
+    FluxStream.pull(vertx, upload)
+        .reduce(Buffer.buffer(), Buffer::appendBuffer)
+        .subscribe(
+            body -> delegate.handle(new Uploaded(message, body)),
+            e -> {
+              final var code = ActionMetrics.code(e);
+              message.fail(code, e.getMessage());
+              metrics.error(code);
+            });
+  }
+
+  /** 请求体替换为拉取到的内容，回复原样转发 */
+  private static class Uploaded implements Message<Object> {
+    private final Message<Object> message;
+    private final Buffer body;
+    private final MultiMap headers;
+
+    private Uploaded(Message<Object> message, Buffer body) {
+      this.message = message;
+      this.body = body;
+      headers =
+          MultiMap.caseInsensitiveMultiMap().addAll(message.headers()).remove(ApiProtocol.UPLOAD);
+    }
+
+    @Override
+    public String address() {
+      return message.address();
+    }
+
+    @Override
+    public MultiMap headers() {
+      return headers;
+    }
+
+    @Override
+    public Object body() {
+      return body;
+    }
+
+    @Override
+    public String replyAddress() {
+      return message.replyAddress();
+    }
+
+    @Override
+    public boolean isSend() {
+      return message.isSend();
+    }
+
+    @Override
+    public void reply(Object o, DeliveryOptions options) {
+      message.reply(o, options);
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object o, DeliveryOptions options) {
+      return message.replyAndRequest(o, options);
+    }
+  }
+}
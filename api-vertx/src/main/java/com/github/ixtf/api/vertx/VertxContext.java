@@ -2,7 +2,6 @@ package com.github.ixtf.api.vertx;
 
 import com.github.ixtf.api.ApiContext;
 import com.github.ixtf.api.Util;
-import com.google.common.collect.ImmutableMap;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
 import io.vertx.core.buffer.Buffer;
@@ -40,9 +39,7 @@ public class VertxContext implements ApiContext {
     }
 
     private Map<String, String> _headers() {
-        final var builder = ImmutableMap.<String, String>builder();
-        reply.headers().forEach(entry -> builder.put(entry.getKey(), entry.getValue()));
-        return builder.build();
+        return new MultiMapView(reply.headers());
     }
 
     private byte[] _body() {
@@ -0,0 +1,131 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.ApiAction;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在 action 独占的有界 worker pool 中执行，执行中加排队的请求超过上限时直接回复 503，不无限排队
+ *
+ * <p>请求在回复时才释放计数，返回 Mono / CompletionStage / Future 的 action 在结果回复前仍占用名额
+ *
+ * <p>同一地址的多个 verticle 实例共享线程池和计数
+ */
+class WorkerReplyHandler implements Handler<Message<Object>> {
+  static final int SERVICE_UNAVAILABLE = 503;
+  private static final Map<String, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+  private final String address;
+  private final Handler<Message<Object>> delegate;
+  private final WorkerExecutor executor;
+  private final int limit;
+  private final AtomicInteger inFlight;
+  private final ActionMetrics metrics;
+
+  WorkerReplyHandler(
+      Vertx vertx,
+      String address,
+      ApiAction annotation,
+      ActionMetrics metrics,
+      Handler<Message<Object>> delegate) {
+    this.address = address;
+    this.metrics = metrics;
+    this.delegate = delegate;
+    final var poolSize =
+        annotation.workerPoolSize() > 0
+            ? annotation.workerPoolSize()
+            : VertxOptions.DEFAULT_WORKER_POOL_SIZE;
+    executor = vertx.createSharedWorkerExecutor(address, poolSize);
+    limit = poolSize + Math.max(annotation.maxQueue(), 0);
+    inFlight = IN_FLIGHT.computeIfAbsent(address, k -> new AtomicInteger());
+  }
+
+  @Override
+  public void handle(Message<Object> message) {
+    if (inFlight.incrementAndGet() > limit) {
+      inFlight.decrementAndGet();
+      message.fail(SERVICE_UNAVAILABLE, "overloaded: " + address);
+      metrics.error(SERVICE_UNAVAILABLE);
+      return;
+    }
+    final var received = System.nanoTime();
+    final var slot = new Slot(message);
+    executor.<Void>executeBlocking(
+        p -> {
+          metrics.queued(received);
+          try {
+            delegate.handle(slot);
+          } catch (Throwable e) {
+            slot.release();
+            throw e;
+          } finally {
+            p.complete();
+          }
+        },
+        false,
+        null);
+  }
+
+  /** 回复原样转发，第一次回复时释放计数 */
+  private class Slot implements Message<Object> {
+    private final Message<Object> message;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot(Message<Object> message) {
+      this.message = message;
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        inFlight.decrementAndGet();
+      }
+    }
+
+    @Override
+    public String address() {
+      return message.address();
+    }
+
+    @Override
+    public MultiMap headers() {
+      return message.headers();
+    }
+
+    @Override
+    public Object body() {
+      return message.body();
+    }
+
+    @Override
+    public String replyAddress() {
+      return message.replyAddress();
+    }
+
+    @Override
+    public boolean isSend() {
+      return message.isSend();
+    }
+
+    @Override
+    public void reply(Object o, DeliveryOptions options) {
+      release();
+      message.reply(o, options);
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object o, DeliveryOptions options) {
+      release();
+      return message.replyAndRequest(o, options);
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.github.ixtf.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.ixtf.mongo.JmongoEntityCodecProvider;
+import com.github.ixtf.mongo.MongoEntityBase;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import static com.github.ixtf.Constant.MAPPER;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** queryRaw 的结果以 BsonJson 写出，与 MAPPER 序列化同一实体比较 */
+class BsonJsonTest {
+  private static final CodecRegistry REGISTRY =
+      fromRegistries(
+          MongoClientSettings.getDefaultCodecRegistry(),
+          fromProviders(
+              new JmongoEntityCodecProvider(), PojoCodecProvider.builder().automatic(true).build()));
+  private static final LocalDateTime DATE_TIME = LocalDateTime.of(2021, 1, 2, 3, 4, 5);
+
+  /** MAPPER 写出的 JSON，与 BsonJson 一样按文本比较 */
+  private static JsonNode mapperJson(Object entity) throws Exception {
+    return MAPPER.readTree(MAPPER.writeValueAsBytes(entity));
+  }
+
+  /** 与 queryRaw 一样从 RawBsonDocument 写出 */
+  private static JsonNode bsonJson(Object entity) throws Exception {
+    final var document = new BsonDocument();
+    encode(document, entity);
+    final var raw = new RawBsonDocument(document, new BsonDocumentCodec());
+    return MAPPER.readTree(BsonJson.toBuffer(raw).getBytes());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void encode(BsonDocument document, T entity) {
+    REGISTRY
+        .get((Class<T>) entity.getClass())
+        .encode(new BsonDocumentWriter(document), entity, EncoderContext.builder().build());
+  }
+
+  private static <T extends Order> T order(T ret) {
+    ret.setId("o1");
+    ret.setName("n");
+    ret.setCount(3);
+    ret.setAmount(1.5);
+    ret.setTags(List.of("a", "b"));
+    ret.setCreateDateTime(new Date(1_000));
+    final var line = new Line();
+    line.setSku("s");
+    line.setQuantity(2);
+    ret.setLine(line);
+    return ret;
+  }
+
+  @Test
+  void plainPropertiesMatchMapper() throws Exception {
+    final var order = order(new Order());
+
+    assertEquals(mapperJson(order), bsonJson(order));
+  }
+
+  @Test
+  void documentedDifferencesFromMapper() throws Exception {
+    final var order = order(new Dated());
+    order.setLocalDateTime(DATE_TIME);
+    order.setLocalDate(DATE_TIME.toLocalDate());
+    order.setInstant(DATE_TIME.toInstant(ZoneOffset.UTC));
+    order.setSecret("x");
+    order.setName(null);
+    final var expected = (ObjectNode) mapperJson(order);
+    final var actual = bsonJson(order);
+    final var millis = DATE_TIME.toInstant(ZoneOffset.UTC).toEpochMilli();
+
+    // java.time 在 BSON 中都是 DATE_TIME，写为毫秒数
+    assertTrue(expected.get("localDateTime").isArray());
+    assertEquals(millis, actual.get("localDateTime").longValue());
+    assertTrue(expected.get("localDate").isArray());
+    assertEquals(
+        DATE_TIME.toLocalDate().atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli(),
+        actual.get("localDate").longValue());
+    assertEquals(millis / 1000.0, expected.get("instant").doubleValue());
+    assertEquals(millis, actual.get("instant").longValue());
+    // Jackson 注解不起作用，null 不写出
+    assertFalse(expected.has("secret"));
+    assertEquals("x", actual.get("secret").textValue());
+    assertTrue(expected.get("name").isNull());
+    assertFalse(actual.has("name"));
+
+    expected.remove(List.of("localDateTime", "localDate", "instant", "name"));
+    ((ObjectNode) actual).remove(List.of("localDateTime", "localDate", "instant", "secret"));
+    assertEquals(expected, actual);
+  }
+
+  public static class Order extends MongoEntityBase {
+    private String name;
+    private int count;
+    private double amount;
+    private List<String> tags;
+    private Date createDateTime;
+    private Line line;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public void setCount(int count) {
+      this.count = count;
+    }
+
+    public double getAmount() {
+      return amount;
+    }
+
+    public void setAmount(double amount) {
+      this.amount = amount;
+    }
+
+    public List<String> getTags() {
+      return tags;
+    }
+
+    public void setTags(List<String> tags) {
+      this.tags = tags;
+    }
+
+    public Date getCreateDateTime() {
+      return createDateTime;
+    }
+
+    public void setCreateDateTime(Date createDateTime) {
+      this.createDateTime = createDateTime;
+    }
+
+    public Line getLine() {
+      return line;
+    }
+
+    public void setLine(Line line) {
+      this.line = line;
+    }
+  }
+
+  /** java.time、Jackson 注解与 MAPPER 不同 */
+  public static class Dated extends Order {
+    private LocalDateTime localDateTime;
+    private LocalDate localDate;
+    private Instant instant;
+    private String secret;
+
+    public LocalDateTime getLocalDateTime() {
+      return localDateTime;
+    }
+
+    public void setLocalDateTime(LocalDateTime localDateTime) {
+      this.localDateTime = localDateTime;
+    }
+
+    public LocalDate getLocalDate() {
+      return localDate;
+    }
+
+    public void setLocalDate(LocalDate localDate) {
+      this.localDate = localDate;
+    }
+
+    public Instant getInstant() {
+      return instant;
+    }
+
+    public void setInstant(Instant instant) {
+      this.instant = instant;
+    }
+
+    @JsonIgnore
+    public String getSecret() {
+      return secret;
+    }
+
+    public void setSecret(String secret) {
+      this.secret = secret;
+    }
+  }
+
+  public static class Line {
+    private String sku;
+    private int quantity;
+
+    public String getSku() {
+      return sku;
+    }
+
+    public void setSku(String sku) {
+      this.sku = sku;
+    }
+
+    public int getQuantity() {
+      return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+      this.quantity = quantity;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import com.github.ixtf.guice.GuiceModule;
+import com.google.inject.TypeLiteral;
+import io.opentracing.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** 在本地 event bus 上模拟网关，按网关的方式发送请求和拉取 */
+class ApiReplyHandlerTest {
+  private static final String ADDRESS = "test:list";
+  private static final String ECHO = "test:echo";
+  private static final String COUNT = "test:count";
+  private static final String UPLOAD = "test:upload";
+  private Vertx vertx;
+
+  @BeforeAll
+  static void init() {
+    GuiceModule.init(
+        binder ->
+            binder.bind(new TypeLiteral<Optional<Tracer>>() {}).toInstance(Optional.empty()));
+  }
+
+  static <T> T await(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  /** 与网关的 pull 一致，上一块回复后才拉取下一块 */
+  static Future<Buffer> pullAll(Vertx vertx, String address, Buffer ret) {
+    return vertx
+        .eventBus()
+        .<Buffer>request(address, null)
+        .compose(
+            it ->
+                it.headers().contains(ApiProtocol.STREAM_END)
+                    ? Future.succeededFuture(ret)
+                    : pullAll(vertx, address, ret.appendBuffer(it.body())));
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    LocalBufferCodec.register(vertx);
+    register(ADDRESS, "list", false);
+    register(ECHO, "echo", true);
+    register(COUNT, "count", false);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    await(vertx.close());
+  }
+
+  private void register(String address, String name, boolean bufferUpload) throws Exception {
+    final var method =
+        Arrays.stream(Actions.class.getMethods())
+            .filter(it -> it.getName().equals(name))
+            .findFirst()
+            .orElseThrow();
+    final var metrics = new ActionMetrics("api", address);
+    final Handler<Message<Object>> replyHandler =
+        GuiceModule.injectMembers(new ApiReplyHandler(vertx, address, method, metrics));
+    final var handler =
+        bufferUpload ? new UploadBodyHandler(vertx, metrics, replyHandler) : replyHandler;
+    await(Future.<Void>future(vertx.eventBus().consumer(address, handler)::completionHandler));
+  }
+
+  /** 网关一侧的上传：每次拉取回复一块，读完回复结束，返回拉取次数 */
+  private AtomicInteger serveUpload(List<String> chunks) throws Exception {
+    final var pulls = new AtomicInteger();
+    final var iterator = chunks.iterator();
+    final var consumer =
+        vertx
+            .eventBus()
+            .consumer(
+                UPLOAD,
+                message -> {
+                  pulls.incrementAndGet();
+                  if (iterator.hasNext()) {
+                    message.reply(Buffer.buffer(iterator.next()), LocalBufferCodec.deliveryOptions());
+                  } else {
+                    message.reply(null, new DeliveryOptions().addHeader(ApiProtocol.STREAM_END, "1"));
+                  }
+                });
+    await(Future.<Void>future(consumer::completionHandler));
+    return pulls;
+  }
+
+  @Test
+  void fluxIsStreamedAsNdjsonWhenRequested() throws Exception {
+    final var options = new DeliveryOptions().addHeader(ApiProtocol.STREAM, ApiProtocol.NDJSON_MODE);
+    final Message<Object> reply = await(vertx.eventBus().request(ADDRESS, Buffer.buffer(), options));
+    final var streamAddress = reply.headers().get(ApiProtocol.STREAM);
+
+    assertNotNull(streamAddress);
+    assertNull(reply.body());
+    assertEquals(ApiProtocol.NDJSON, reply.headers().get(CONTENT_TYPE));
+    assertEquals(
+        "{\"i\":0}\n{\"i\":1}\n{\"i\":2}\n",
+        await(pullAll(vertx, streamAddress, Buffer.buffer())).toString());
+  }
+
+  @Test
+  void fluxIsCollectedAsJsonArrayByDefault() throws Exception {
+    final Message<Object> reply = await(vertx.eventBus().request(ADDRESS, Buffer.buffer()));
+
+    assertNull(reply.headers().get(ApiProtocol.STREAM));
+    assertEquals(
+        new JsonArray().add(new JsonObject().put("i", 0)).add(new JsonObject().put("i", 1)).add(new JsonObject().put("i", 2)),
+        new JsonArray((Buffer) reply.body()));
+  }
+
+  @Test
+  void uploadIsBufferedForActionsWithoutFluxParameter() throws Exception {
+    final var pulls = serveUpload(List.of("ab", "cd", "e"));
+    final var options = new DeliveryOptions().addHeader(ApiProtocol.UPLOAD, UPLOAD);
+    final Message<Object> reply = await(vertx.eventBus().request(ECHO, null, options));
+
+    assertEquals("abcde", reply.body());
+    assertEquals(4, pulls.get());
+  }
+
+  @Test
+  void uploadIsPulledChunkByChunkForFluxParameter() throws Exception {
+    final var pulls = serveUpload(List.of("ab", "cd", "e"));
+    final var options = new DeliveryOptions().addHeader(ApiProtocol.UPLOAD, UPLOAD);
+    final Message<Object> reply = await(vertx.eventBus().request(COUNT, null, options));
+
+    assertEquals("3:5", reply.body());
+    assertEquals(4, pulls.get());
+  }
+
+  @Test
+  void fluxParameterWithoutUploadIsWholeBody() throws Exception {
+    final Message<Object> reply = await(vertx.eventBus().request(COUNT, Buffer.buffer("abc")));
+
+    assertEquals("1:3", reply.body());
+  }
+
+  public static class Actions {
+    public String echo(String body) {
+      return body;
+    }
+
+    /** @return 块数:字节数 */
+    public Mono<String> count(Flux<Buffer> body) {
+      return body.collectList()
+          .map(it -> it.size() + ":" + it.stream().mapToInt(Buffer::length).sum());
+    }
+
+    public Flux<JsonObject> list() {
+      return Flux.range(0, 3).map(it -> new JsonObject().put("i", it));
+    }
+  }
+}
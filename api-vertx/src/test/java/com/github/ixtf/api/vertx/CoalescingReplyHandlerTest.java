@@ -0,0 +1,254 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.ApiAction;
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescingReplyHandlerTest {
+  private static final AtomicInteger ADDRESSES = new AtomicInteger();
+  private static Vertx vertx;
+  /** delegate 收到的消息，测试中手动回复 */
+  private final List<Message<Object>> executed = new ArrayList<>();
+
+  @BeforeAll
+  static void setUpVertx() {
+    vertx = Vertx.vertx();
+  }
+
+  @AfterAll
+  static void tearDownVertx() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private static ApiAction annotation(String name) throws Exception {
+    return Actions.class.getDeclaredMethod(name).getAnnotation(ApiAction.class);
+  }
+
+  private CoalescingReplyHandler handler(String name) throws Exception {
+    // 合并状态按地址共享，每个测试用不同的地址
+    final var address = "test:" + name + ":" + ADDRESSES.incrementAndGet();
+    return new CoalescingReplyHandler(vertx, address, annotation(name), executed::add);
+  }
+
+  @Test
+  void identicalConcurrentRequestsExecuteOnce() throws Exception {
+    final var handler = handler("principal");
+    final var messages =
+        List.of(FakeMessage.of("u1", "a"), FakeMessage.of("u1", "a"), FakeMessage.of("u1", "a"));
+    messages.forEach(handler::handle);
+
+    assertEquals(1, executed.size());
+    executed.get(0).reply("r");
+    messages.forEach(it -> assertEquals(List.of("r"), it.bodies()));
+  }
+
+  @Test
+  void principalScopeKeepsUsersApart() throws Exception {
+    final var handler = handler("principal");
+    handler.handle(FakeMessage.of("u1", "a"));
+    handler.handle(FakeMessage.of("u2", "a"));
+    handler.handle(FakeMessage.of("u1", "b"));
+
+    assertEquals(3, executed.size());
+  }
+
+  @Test
+  void globalScopeIgnoresPrincipal() throws Exception {
+    final var handler = handler("global");
+    handler.handle(FakeMessage.of("u1", "a"));
+    handler.handle(FakeMessage.of("u2", "a"));
+
+    assertEquals(1, executed.size());
+  }
+
+  @Test
+  void requestAfterReplyExecutesAgainWithoutCache() throws Exception {
+    final var handler = handler("principal");
+    handler.handle(FakeMessage.of("u1", "a"));
+    executed.get(0).reply("r");
+    handler.handle(FakeMessage.of("u1", "a"));
+
+    assertEquals(2, executed.size());
+  }
+
+  @Test
+  void successIsCachedAndFailureIsNot() throws Exception {
+    final var handler = handler("cached");
+    handler.handle(FakeMessage.of("u1", "fail"));
+    executed.get(0).fail(400, "bad");
+    final var retried = FakeMessage.of("u1", "fail");
+    handler.handle(retried);
+
+    assertEquals(2, executed.size());
+
+    handler.handle(FakeMessage.of("u1", "ok"));
+    executed.get(2).reply("r");
+    final var cached = FakeMessage.of("u1", "ok");
+    handler.handle(cached);
+
+    assertEquals(3, executed.size());
+    assertEquals(List.of("r"), cached.bodies());
+  }
+
+  @Test
+  void leaderIsNotStreamedAndUploadsAreNotCoalesced() throws Exception {
+    final var handler = handler("global");
+    final var streamed = FakeMessage.of("u1", "a");
+    streamed.headers.add(ApiProtocol.STREAM, ApiProtocol.NDJSON_MODE);
+    handler.handle(streamed);
+    final var upload = FakeMessage.of("u1", "");
+    upload.headers.add(ApiProtocol.UPLOAD, "test:upload");
+    handler.handle(upload);
+    handler.handle(FakeMessage.of("u1", ""));
+
+    assertEquals(3, executed.size());
+    assertNull(executed.get(0).headers().get(ApiProtocol.STREAM));
+    assertSame(upload, executed.get(1));
+  }
+
+  @Test
+  void codecIsOnlyUsedForMembersThatDeclaredIt() throws Exception {
+    final var handler = handler("global");
+    final var leader = FakeMessage.of("u1", "a");
+    leader.headers.add(ApiProtocol.CODEC, "1");
+    final var member = FakeMessage.of("u2", "a");
+    handler.handle(leader);
+    handler.handle(member);
+    executed.get(0).reply(Buffer.buffer("r"), LocalBufferCodec.deliveryOptions());
+
+    assertEquals(LocalBufferCodec.NAME, leader.replies.get(0).getValue().getCodecName());
+    assertNull(member.replies.get(0).getValue().getCodecName());
+  }
+
+  @Test
+  void failureIsRepliedToAllMembers() throws Exception {
+    final var handler = handler("global");
+    final var messages = List.of(FakeMessage.of("u1", "a"), FakeMessage.of("u2", "a"));
+    messages.forEach(handler::handle);
+    executed.get(0).fail(501, "boom");
+
+    messages.forEach(
+        it -> {
+          final var body = it.bodies().get(0);
+          assertTrue(body instanceof ReplyException);
+          assertEquals(501, ((ReplyException) body).failureCode());
+        });
+  }
+
+  @Test
+  void leaderThatNeverRepliesIsReplacedAfterTimeout() throws Exception {
+    final var handler = handler("timeout");
+    final var stale = FakeMessage.of("u1", "a");
+    handler.handle(stale);
+    // 超时前加入同一组
+    final var joined = FakeMessage.of("u1", "a");
+    handler.handle(joined);
+    assertEquals(1, executed.size());
+
+    TimeUnit.MILLISECONDS.sleep(300);
+    final var fresh = FakeMessage.of("u1", "a");
+    handler.handle(fresh);
+    assertEquals(2, executed.size());
+
+    executed.get(1).reply("r");
+    assertEquals(List.of("r"), fresh.bodies());
+    assertTrue(stale.bodies().isEmpty());
+    // 原 leader 迟到的回复只给原来的组
+    executed.get(0).reply("late");
+    assertEquals(List.of("late"), stale.bodies());
+    assertEquals(List.of("late"), joined.bodies());
+    assertEquals(List.of("r"), fresh.bodies());
+  }
+
+  static class Actions {
+    @ApiAction(action = "principal", coalesce = ApiAction.Coalesce.PRINCIPAL)
+    void principal() {}
+
+    @ApiAction(action = "global", coalesce = ApiAction.Coalesce.GLOBAL)
+    void global() {}
+
+    @ApiAction(action = "cached", coalesce = ApiAction.Coalesce.PRINCIPAL, cacheTtl = 60_000)
+    void cached() {}
+
+    @ApiAction(action = "timeout", coalesce = ApiAction.Coalesce.PRINCIPAL, coalesceTimeout = 50)
+    void timeout() {}
+  }
+
+  /** 记录回复的消息 */
+  private static class FakeMessage implements Message<Object> {
+    private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    private final Buffer body;
+    private final List<Map.Entry<Object, DeliveryOptions>> replies = new ArrayList<>();
+
+    private FakeMessage(Buffer body) {
+      this.body = body;
+    }
+
+    static FakeMessage of(String principal, String body) {
+      final var ret = new FakeMessage(Buffer.buffer(body));
+      ret.headers.add(Principal.class.getName(), principal);
+      return ret;
+    }
+
+    List<Object> bodies() {
+      return replies.stream().map(Map.Entry::getKey).toList();
+    }
+
+    @Override
+    public String address() {
+      return "test";
+    }
+
+    @Override
+    public MultiMap headers() {
+      return headers;
+    }
+
+    @Override
+    public Object body() {
+      return body;
+    }
+
+    @Override
+    public String replyAddress() {
+      return null;
+    }
+
+    @Override
+    public boolean isSend() {
+      return true;
+    }
+
+    @Override
+    public void reply(Object message, DeliveryOptions options) {
+      replies.add(Map.entry(message, options));
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object message, DeliveryOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.github.ixtf.api.vertx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InvokerTest {
+
+  @SuppressWarnings("unchecked")
+  private static Invoker<String> invoker(String name) {
+    final var method =
+        Arrays.stream(Actions.class.getDeclaredMethods())
+            .filter(it -> it.getName().equals(name))
+            .findFirst()
+            .orElseThrow();
+    // 第 i 个参数为 c + i，int 参数为其长度
+    final Function<String, Object>[] paramFuns =
+        new Function[method.getParameterCount()];
+    for (var i = 0; i < paramFuns.length; i++) {
+      final var index = i;
+      final var type = method.getParameterTypes()[i];
+      paramFuns[i] = c -> type == int.class ? (c + index).length() : c + index;
+    }
+    return new Invoker<>(new Actions(), method, paramFuns);
+  }
+
+  @Test
+  void everyArityIsInvoked() throws Throwable {
+    assertEquals("0", invoker("zero").invoke("x"));
+    assertEquals("x0", invoker("one").invoke("x"));
+    assertEquals("x0x1", invoker("two").invoke("x"));
+    assertEquals("x0x1x2", invoker("three").invoke("x"));
+    assertEquals("x0x1x2x3", invoker("four").invoke("x"));
+  }
+
+  @Test
+  void primitivesAndStaticMethodsAreAdapted() throws Throwable {
+    assertEquals(6, invoker("sum").invoke("x"));
+    assertEquals("x0", invoker("staticOne").invoke("x"));
+    assertEquals(null, invoker("none").invoke("x"));
+  }
+
+  @Test
+  void exceptionIsNotWrapped() {
+    final var e = assertThrows(IllegalStateException.class, () -> invoker("fail").invoke("x"));
+    assertSame(Actions.FAILURE, e);
+  }
+
+  static class Actions {
+    static final IllegalStateException FAILURE = new IllegalStateException();
+
+    static String staticOne(String a) {
+      return a;
+    }
+
+    private String zero() {
+      return "0";
+    }
+
+    String one(String a) {
+      return a;
+    }
+
+    String two(String a, String b) {
+      return a + b;
+    }
+
+    String three(String a, String b, String c) {
+      return a + b + c;
+    }
+
+    String four(String a, String b, String c, String d) {
+      return a + b + c + d;
+    }
+
+    int sum(int a, int b, int c) {
+      return a + b + c;
+    }
+
+    void none() {}
+
+    String fail() {
+      throw FAILURE;
+    }
+  }
+}
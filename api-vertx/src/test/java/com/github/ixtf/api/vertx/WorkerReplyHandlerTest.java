@@ -0,0 +1,151 @@
+package com.github.ixtf.api.vertx;
+
+import com.github.ixtf.api.ApiAction;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkerReplyHandlerTest {
+  private static final AtomicInteger ADDRESSES = new AtomicInteger();
+  /** delegate 收到的消息，返回时不回复，和返回 Mono 的 action 一样 */
+  private final BlockingQueue<Message<Object>> executed = new LinkedBlockingQueue<>();
+  private Vertx vertx;
+
+  @BeforeEach
+  void setUp() {
+    vertx = Vertx.vertx();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private WorkerReplyHandler handler(Handler<Message<Object>> delegate) throws Exception {
+    // 计数按地址共享，每个测试用不同的地址
+    final var address = "test:worker:" + ADDRESSES.incrementAndGet();
+    final var annotation =
+        Actions.class.getDeclaredMethod("single").getAnnotation(ApiAction.class);
+    return new WorkerReplyHandler(
+        vertx, address, annotation, new ActionMetrics("test", address), delegate);
+  }
+
+  private static void assertUnavailable(FakeMessage message) {
+    assertEquals(1, message.replies.size());
+    final var body = message.replies.get(0);
+    assertTrue(body instanceof ReplyException);
+    assertEquals(WorkerReplyHandler.SERVICE_UNAVAILABLE, ((ReplyException) body).failureCode());
+  }
+
+  @Test
+  void slotIsHeldUntilReplyAndExcessIsShed() throws Exception {
+    final var handler = handler(executed::add);
+    final var first = new FakeMessage();
+    handler.handle(first);
+    final var pending = executed.poll(5, TimeUnit.SECONDS);
+    assertNotNull(pending);
+    // 等 delegate 返回、executeBlocking 完成，此时仍未回复，仍占用唯一的名额
+    TimeUnit.MILLISECONDS.sleep(200);
+
+    final var shed = new FakeMessage();
+    handler.handle(shed);
+    assertUnavailable(shed);
+
+    pending.reply("r");
+    assertEquals(List.of("r"), first.replies);
+    final var next = new FakeMessage();
+    handler.handle(next);
+    assertNotNull(executed.poll(5, TimeUnit.SECONDS));
+    assertTrue(next.replies.isEmpty());
+  }
+
+  @Test
+  void slotIsReleasedWhenDelegateThrows() throws Exception {
+    final var calls = new AtomicInteger();
+    final var handler =
+        handler(
+            it -> {
+              if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("boom");
+              }
+              executed.add(it);
+            });
+    handler.handle(new FakeMessage());
+
+    // 释放在 worker 线程上，到达前的请求被拒绝，之后的请求一定能执行
+    final var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (executed.isEmpty() && System.nanoTime() < deadline) {
+      handler.handle(new FakeMessage());
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    assertNotNull(executed.poll(5, TimeUnit.SECONDS));
+  }
+
+  static class Actions {
+    @ApiAction(
+        action = "single",
+        execution = ApiAction.Execution.WORKER,
+        workerPoolSize = 1,
+        maxQueue = 0)
+    void single() {}
+  }
+
+  /** 记录回复的内容 */
+  private static class FakeMessage implements Message<Object> {
+    private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    private final List<Object> replies = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String address() {
+      return "test";
+    }
+
+    @Override
+    public MultiMap headers() {
+      return headers;
+    }
+
+    @Override
+    public Object body() {
+      return null;
+    }
+
+    @Override
+    public String replyAddress() {
+      return null;
+    }
+
+    @Override
+    public boolean isSend() {
+      return true;
+    }
+
+    @Override
+    public void reply(Object message, DeliveryOptions options) {
+      replies.add(message);
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object message, DeliveryOptions options) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
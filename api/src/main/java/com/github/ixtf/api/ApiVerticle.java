@@ -1,20 +1,25 @@
 package com.github.ixtf.api;
 
+import com.github.ixtf.api.protocol.LocalBufferCodec;
 import com.google.inject.Inject;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
-import io.opentracing.propagation.TextMapAdapter;
+import io.opentracing.propagation.TextMap;
 import io.opentracing.tag.Tags;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.tracing.TracingPolicy;
 import io.vertx.ext.auth.oauth2.OAuth2Auth;
@@ -31,15 +36,27 @@ import io.vertx.ext.web.handler.sockjs.SockJSBridgeOptions;
 import io.vertx.ext.web.handler.sockjs.SockJSHandler;
 import io.vertx.micrometer.PrometheusScrapingHandler;
 import io.vertx.spi.cluster.hazelcast.ClusterHealthCheck;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.security.Principal;
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.github.ixtf.api.ApiModule.injectMembers;
+import static com.github.ixtf.api.protocol.ApiProtocol.*;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT;
 import static io.netty.handler.codec.http.HttpHeaderNames.AUTHORIZATION;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.RETRY_AFTER;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpHeaderValues.*;
 import static io.opentracing.propagation.Format.Builtin.TEXT_MAP;
 import static io.vertx.ext.auth.oauth2.providers.OpenIDConnectAuth.discover;
@@ -49,12 +66,52 @@ import static java.util.Optional.ofNullable;
 public class ApiVerticle extends AbstractVerticle implements Handler<RoutingContext> {
     private static final long DL_TIMEOUT = Duration.ofMinutes(5).toMillis();
     private static final String KeycloakAdmin = "__com.github.ixtf.api:KeycloakAdmin__";
+    private static final Set<String> NOT_FORWARDED = caseInsensitiveSet(List.of(AUTHORIZATION.toString(), Principal.class.getName()));
     @Inject
     private Tracer tracer;
     @Inject
     private OAuth2Options oAuth2Options;
     @Inject
     private CorsHandler corsHandler;
+    /**
+     * 配置 forwardHeaders 时只转发其中的请求头，null 转发全部
+     */
+    private Set<String> forwardHeaders;
+
+    /**
+     * 服务端 worker pool 已满或网关的 {@link ConcurrencyLimiter} 拒绝时为 503，见 api-vertx 的 ApiAction.Execution.WORKER
+     */
+    private static boolean isOverloaded(Throwable e) {
+        return e instanceof final ReplyException replyException
+                && replyException.failureType() == ReplyFailure.RECIPIENT_FAILURE
+                && replyException.failureCode() == SERVICE_UNAVAILABLE.code();
+    }
+
+    /**
+     * application/octet-stream 的请求体不经过 BodyHandler，由服务端通过 {@link UploadStream} 拉取；action 没有 Flux&lt;Buffer&gt;
+     * 参数时服务端拉取完整后再执行
+     */
+    private static boolean isUpload(RoutingContext rc) {
+        return ofNullable(rc.request().getHeader(CONTENT_TYPE))
+                .map(it -> it.regionMatches(true, 0, APPLICATION_OCTET_STREAM.toString(), 0, APPLICATION_OCTET_STREAM.length()))
+                .orElse(false);
+    }
+
+    /**
+     * 客户端 Accept 中声明 application/x-ndjson 才流式返回 Flux 结果，否则服务端收集为 JSON 数组
+     */
+    private static boolean acceptsNdjson(RoutingContext rc) {
+        return rc.request().headers().getAll(ACCEPT).stream()
+                .flatMap(it -> Arrays.stream(it.split(",")))
+                .map(it -> it.split(";", 2)[0].trim())
+                .anyMatch(NDJSON::equalsIgnoreCase);
+    }
+
+    private static Set<String> caseInsensitiveSet(Collection<?> names) {
+        final var ret = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        names.forEach(it -> ret.add(it.toString()));
+        return Collections.unmodifiableSet(ret);
+    }
 
     public static String apiAddress(RoutingContext rc) {
         final var service = rc.pathParam("service");
@@ -65,6 +122,9 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
     @Override
     public void start(Promise<Void> startPromise) throws Exception {
         injectMembers(this);
+        LocalBufferCodec.register(vertx);
+        final var config = ApiModule.getInstance(JsonObject.class, ApiModule.CONFIG);
+        forwardHeaders = ofNullable(config.getJsonArray("forwardHeaders")).map(JsonArray::getList).map(ApiVerticle::caseInsensitiveSet).orElse(null);
 
 //        new ServiceBinder(vertx).register(KeycloakService.class, keycloakService);
 //        vertx.eventBus().consumer(KeycloakAdmin, reply -> reply.reply(getInstance(JsonObject.class, CONFIG).getJsonObject("keycloak-admin", new JsonObject())));
@@ -76,7 +136,14 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
         final var oAuth2AuthHandler = OAuth2AuthHandler.create(vertx, oAuth2Auth);
         final var router = Router.router(vertx);
         router.route().handler(corsHandler);
-        router.route().handler(BodyHandler.create());
+        final var bodyHandler = BodyHandler.create();
+        router.route().handler(rc -> {
+            if (isUpload(rc)) {
+                rc.next();
+            } else {
+                bodyHandler.handle(rc);
+            }
+        });
         router.route("/metrics").handler(PrometheusScrapingHandler.create());
         router.route("/health*").handler(HealthCheckHandler.create(vertx));
         router.route("/ping*").handler(HealthCheckHandler.createWithHealthChecks(HealthChecks.create(vertx)));
@@ -86,7 +153,13 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
 
         router.route().failureHandler(rc -> {
             final var errMsg = new JsonObject().put("errMsg", rc.failure().getMessage());
-            rc.response().setStatusCode(400).putHeader(CONTENT_TYPE, APPLICATION_JSON).end(errMsg.encode());
+            final var response = rc.response();
+            if (isOverloaded(rc.failure())) {
+                response.setStatusCode(SERVICE_UNAVAILABLE.code()).putHeader(RETRY_AFTER, "1");
+            } else {
+                response.setStatusCode(400);
+            }
+            response.putHeader(CONTENT_TYPE, APPLICATION_JSON).end(errMsg.encode());
         });
         // todo add auth fix sockJSAddressRegex in config
         final var permitted = new PermittedOptions().setAddressRegex("medipath://ws/.+");
@@ -102,28 +175,74 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
 
     @Override
     public void handle(RoutingContext rc) {
-        Future.<Message<Object>>future(p -> {
+        final var limiter = ConcurrencyLimiter.of(apiAddress(rc));
+        final var start = limiter.tryAcquire();
+        if (start < 0) {
+            rc.fail(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, SERVICE_UNAVAILABLE.code(), "overloaded: " + apiAddress(rc)));
+            return;
+        }
+        final var uploadFuture = isUpload(rc) ? UploadStream.start(vertx, apiAddress(rc), rc.request()) : Future.<UploadStream>succeededFuture();
+        uploadFuture.compose(upload -> request(rc, upload).onComplete(__ -> ofNullable(upload).ifPresent(UploadStream::close))).onComplete(ar -> {
+            release(limiter, start, ar.cause());
+            if (ar.failed()) {
+                onFailure(rc, ar.cause());
+            } else {
+                onSuccess(rc, ar.result());
+            }
+            tracer.activeSpan().setTag(Tags.HTTP_STATUS, rc.response().getStatusCode()).finish();
+        });
+    }
+
+    /**
+     * 流式响应在服务端开始回复时即释放，延迟不包含拉取数据块的时间
+     */
+    private void release(ConcurrencyLimiter limiter, long start, Throwable e) {
+        if (e instanceof final ReplyException replyException) {
+            if (replyException.failureType() == ReplyFailure.NO_HANDLERS) {
+                limiter.release(start, false);
+                limiter.noHandlers();
+                return;
+            }
+            limiter.release(start, replyException.failureType() == ReplyFailure.TIMEOUT || isOverloaded(e));
+        } else {
+            limiter.release(start, false);
+        }
+        limiter.meter();
+    }
+
+    /**
+     * @param upload 流式上传时不为 null，请求体由服务端拉取
+     */
+    private Future<Message<Object>> request(RoutingContext rc, UploadStream upload) {
+        return Future.future(p -> {
             final var deliveryOptions = deliveryOptions(rc);
             final var token = rc.pathParam("token");
             final Object body;
             if (token == null) {
-                body = rc.getBody();
+                body = upload == null ? rc.getBody() : null;
+                if (acceptsNdjson(rc)) {
+                    deliveryOptions.addHeader(STREAM, NDJSON_MODE);
+                }
                 final var principal = rc.user().attributes().getString("sub");
                 deliveryOptions.addHeader(Principal.class.getName(), principal);
                 rc.response().putHeader(CONTENT_TYPE, APPLICATION_JSON);
             } else {
                 body = token;
+                // 服务端返回 Buffer 流或 ReadStream 时分块下载
+                deliveryOptions.addHeader(STREAM, OCTET_MODE);
                 deliveryOptions.setSendTimeout(Math.max(DL_TIMEOUT, deliveryOptions.getSendTimeout()));
                 rc.response().putHeader(CONTENT_TYPE, APPLICATION_OCTET_STREAM);
             }
-            vertx.eventBus().request(apiAddress(rc), body, deliveryOptions, p);
-        }).onComplete(ar -> {
-            if (ar.failed()) {
-                onFailure(rc, ar.cause());
-            } else {
-                onSuccess(rc, ar.result());
+            if (upload != null) {
+                deliveryOptions.addHeader(UPLOAD, upload.address());
+                deliveryOptions.setSendTimeout(Math.max(DL_TIMEOUT, deliveryOptions.getSendTimeout()));
             }
-            tracer.activeSpan().setTag(Tags.HTTP_STATUS, rc.response().getStatusCode()).finish();
+            // 服务端须先升级并注册 LocalBufferCodec，见其说明
+            if (body instanceof Buffer) {
+                deliveryOptions.setCodecName(LocalBufferCodec.NAME);
+            }
+            deliveryOptions.addHeader(CODEC, "1");
+            vertx.eventBus().request(apiAddress(rc), body, deliveryOptions, p);
         });
     }
 
@@ -138,8 +257,14 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
             }
         });
         final var statusCode = response.getStatusCode();
+        final var streamAddress = message.headers().get(STREAM);
         if (statusCode >= 300 && statusCode < 400) {
             response.end();
+        } else if (streamAddress != null) {
+            response.headers().remove(STREAM);
+            response.setChunked(true);
+            response.closeHandler(__ -> vertx.eventBus().send(streamAddress, null, new DeliveryOptions().addHeader(STREAM_CANCEL, "1")));
+            pull(rc, streamAddress);
         } else {
             final var body = message.body();
             if (body == null) {
@@ -156,6 +281,28 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
         }
     }
 
+    /**
+     * 上一块写入完成后才拉取下一块，由 http 写队列控制服务端的产出速度
+     */
+    private void pull(RoutingContext rc, String streamAddress) {
+        final var response = rc.response();
+        vertx.eventBus().<Buffer>request(streamAddress, null, new DeliveryOptions().addHeader(CODEC, "1"), ar -> {
+            if (ar.failed()) {
+                log.error(apiAddress(rc), ar.cause());
+                // 响应头已发出，只能中断连接
+                response.reset();
+            } else if (ar.result().headers().contains(STREAM_END)) {
+                response.end();
+            } else {
+                response.write(ar.result().body()).onComplete(it -> {
+                    if (it.succeeded()) {
+                        pull(rc, streamAddress);
+                    }
+                });
+            }
+        });
+    }
+
     private void onFailure(RoutingContext rc, Throwable e) {
         rc.fail(e);
         log.error(apiAddress(rc), e);
@@ -163,36 +310,39 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
     }
 
     private DeliveryOptions deliveryOptions(RoutingContext rc) {
-        final var deliveryOptions = new DeliveryOptions().setTracingPolicy(TracingPolicy.ALWAYS);
-        ofNullable(activateSpan(rc)).map(Span::context).ifPresent(it -> {
-            final var map = new HashMap<String, String>();
-            tracer.inject(it, TEXT_MAP, new TextMapAdapter(map));
-            map.forEach((k, v) -> deliveryOptions.addHeader(k, v));
-        });
+        final var headers = MultiMap.caseInsensitiveMultiMap();
+        final var deliveryOptions = new DeliveryOptions().setTracingPolicy(TracingPolicy.ALWAYS).setHeaders(headers);
+        ofNullable(activateSpan(rc)).map(Span::context).ifPresent(it -> tracer.inject(it, TEXT_MAP, new MultiMapTextMap(headers)));
         ofNullable(rc.queryParam("timeout"))
                 .filter(it -> it.size() > 0)
                 .map(it -> it.get(0))
                 .map(Long::parseLong)
                 .filter(it -> it > DeliveryOptions.DEFAULT_TIMEOUT)
                 .ifPresent(deliveryOptions::setSendTimeout);
-        final var authorization = AUTHORIZATION.toString(0);
         rc.request().headers().forEach(it -> {
-            final var key = it.getKey().toLowerCase();
-            if (!authorization.equalsIgnoreCase(it.getKey())) {
-                deliveryOptions.addHeader(key, it.getValue());
+            if (isForwarded(it.getKey())) {
+                headers.add(it.getKey(), it.getValue());
             }
         });
         return deliveryOptions;
     }
 
+    /**
+     * 网关自己设置的请求头不接受客户端传入；配置了 forwardHeaders 时只转发其中的请求头
+     */
+    private boolean isForwarded(String name) {
+        if (NOT_FORWARDED.contains(name) || name.regionMatches(true, 0, INTERNAL_PREFIX, 0, INTERNAL_PREFIX.length())) {
+            return false;
+        }
+        return forwardHeaders == null || forwardHeaders.contains(name);
+    }
+
     // todo 使用vertx TracingOptions
     private Span activateSpan(RoutingContext rc) {
         final var request = rc.request();
         final var operationName = request.method().name();
         final var spanBuilder = tracer.buildSpan(operationName);
-        final var map = new HashMap<String, String>();
-        request.headers().forEach(entry -> map.put(entry.getKey(), entry.getValue()));
-        ofNullable(tracer.extract(TEXT_MAP, new TextMapAdapter(map))).ifPresent(spanBuilder::asChildOf);
+        ofNullable(tracer.extract(TEXT_MAP, new MultiMapTextMap(request.headers()))).ifPresent(spanBuilder::asChildOf);
         final var span = spanBuilder.start()
                 .setTag(Tags.HTTP_METHOD, operationName)
                 .setTag(Tags.HTTP_URL, request.uri());
@@ -200,4 +350,22 @@ public class ApiVerticle extends AbstractVerticle implements Handler<RoutingCont
         rc.put(Span.class.getName(), span);
         return span;
     }
+
+    /**
+     * 直接读写请求头、消息头，不复制到 HashMap
+     */
+    @RequiredArgsConstructor
+    private static class MultiMapTextMap implements TextMap {
+        private final MultiMap headers;
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return headers.iterator();
+        }
+
+        @Override
+        public void put(String key, String value) {
+            headers.add(key, value);
+        }
+    }
 }
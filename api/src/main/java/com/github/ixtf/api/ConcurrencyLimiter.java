@@ -0,0 +1,138 @@
+package com.github.ixtf.api;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * 每个服务地址一个的自适应并发限制，算法参考 Netflix concurrency-limits 的 Vegas：
+ * 以最小延迟为无排队时的基准估算服务端排队的请求数，排队少时放大并发上限，排队多或超时时缩小，超出上限的请求直接拒绝
+ *
+ * <p>同一 Vertx 的多个 ApiVerticle 实例共享，方法加锁；指标在地址第一次有服务应答后才注册，避免无效地址产生大量指标，注册前的拒绝次数也会导出
+ */
+class ConcurrencyLimiter {
+    private static final Map<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+    private static final int INITIAL_LIMIT = 20;
+    static final int MIN_LIMIT = 4;
+    static final int MAX_LIMIT = 1000;
+    /**
+     * 每 limit * PROBE 个样本以窗口内的最小延迟作为新的基准，服务端变慢后基准不会一直停在旧值
+     */
+    private static final int PROBE = 30;
+    private final String address;
+    private double limit = INITIAL_LIMIT;
+    private long rttNoLoad;
+    private long windowMin = Long.MAX_VALUE;
+    private long samples;
+    private int inFlight;
+    private boolean metered;
+    private long rejected;
+
+    private ConcurrencyLimiter(String address) {
+        this.address = address;
+    }
+
+    static ConcurrencyLimiter of(String address) {
+        return LIMITERS.computeIfAbsent(address, ConcurrencyLimiter::new);
+    }
+
+    /**
+     * @return 获得许可时为开始时间（纳秒），拒绝时为 -1
+     */
+    synchronized long tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return -1;
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start   {@link #tryAcquire()} 的返回值
+     * @param dropped 超时或服务端过载
+     */
+    synchronized void release(long start, boolean dropped) {
+        final var rtt = System.nanoTime() - start;
+        // 释放前的并发数，判断上限是否被用满
+        final var used = inFlight--;
+        final var log = Math.max(1, Math.log10(limit));
+        if (dropped) {
+            update(limit - log);
+            return;
+        }
+        windowMin = Math.min(windowMin, rtt);
+        if (++samples > limit * PROBE) {
+            rttNoLoad = windowMin;
+            samples = 0;
+            windowMin = Long.MAX_VALUE;
+        }
+        if (rttNoLoad == 0 || rtt < rttNoLoad) {
+            rttNoLoad = rtt;
+            return;
+        }
+        // 请求量不足以验证上限时不调整
+        if (used * 2 < limit) {
+            return;
+        }
+        // 一个延迟周期内约有 limit 个样本，每个样本只调整 1/limit，每个周期调整一次步长，避免振荡
+        final var queue = limit * (1 - (double) rttNoLoad / rtt);
+        if (queue <= log) {
+            update(limit + 6 * log / limit);
+        } else if (queue < 3 * log) {
+            update(limit + log / limit);
+        } else if (queue > 6 * log) {
+            update(limit - log / limit);
+        }
+    }
+
+    private void update(double newLimit) {
+        limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, newLimit));
+    }
+
+    /**
+     * 服务没有注册该地址时丢弃，不保留状态
+     */
+    synchronized void noHandlers() {
+        if (!metered && inFlight == 0) {
+            LIMITERS.remove(address, this);
+        }
+    }
+
+    /**
+     * 地址有服务应答后注册到 /metrics
+     */
+    void meter() {
+        meter(BackendRegistries.getDefaultNow());
+    }
+
+    synchronized void meter(MeterRegistry registry) {
+        if (metered) {
+            return;
+        }
+        metered = true;
+        ofNullable(registry).ifPresent(it -> {
+            Gauge.builder("japp.api.limit", this, ConcurrencyLimiter::limit).tag("address", address).register(it);
+            Gauge.builder("japp.api.inflight", this, ConcurrencyLimiter::inFlight).tag("address", address).register(it);
+            FunctionCounter.builder("japp.api.rejected", this, ConcurrencyLimiter::rejected).tag("address", address).register(it);
+        });
+    }
+
+    synchronized double limit() {
+        return limit;
+    }
+
+    synchronized double inFlight() {
+        return inFlight;
+    }
+
+    synchronized double rejected() {
+        return rejected;
+    }
+}
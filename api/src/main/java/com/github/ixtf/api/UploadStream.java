@@ -0,0 +1,127 @@
+package com.github.ixtf.api;
+
+import com.github.ixtf.api.protocol.ApiProtocol;
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.util.UUID;
+
+import static com.github.ixtf.api.protocol.ApiProtocol.*;
+
+/**
+ * 流式上传：服务端每拉取一次读取一批请求体，不经过 BodyHandler 缓存，与 api-vertx 的 FluxStream.pull 对应
+ *
+ * <p>每批合并到 {@link ApiProtocol#BATCH_BYTES} 再回复，不按 http 的小块逐个往返 event bus
+ */
+class UploadStream implements Handler<Message<Object>> {
+    private final HttpServerRequest request;
+    private final MessageConsumer<Object> consumer;
+    private Buffer batch = Buffer.buffer();
+    private Message<Object> pending;
+    private boolean ended;
+    private boolean closed;
+    private Throwable error;
+
+    private UploadStream(Vertx vertx, String address, HttpServerRequest request) {
+        this.request = request;
+        request.pause();
+        request.handler(this::onChunk).endHandler(__ -> onEnd()).exceptionHandler(this::onError);
+        consumer = vertx.eventBus().consumer(address + ":upload:" + UUID.randomUUID(), this);
+    }
+
+    /**
+     * 拉取地址注册完成后才返回，之后再发送请求
+     */
+    static Future<UploadStream> start(Vertx vertx, String address, HttpServerRequest request) {
+        final var stream = new UploadStream(vertx, address, request);
+        return Future.<Void>future(stream.consumer::completionHandler).map(stream);
+    }
+
+    String address() {
+        return consumer.address();
+    }
+
+    /**
+     * 服务端没有读完时丢弃剩余的请求体，连接可以继续使用
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        consumer.unregister();
+        batch = null;
+        if (pending != null) {
+            pending.fail(410, "upload closed");
+            pending = null;
+        }
+        if (!ended && error == null) {
+            request.handler(null).exceptionHandler(null).endHandler(null);
+            request.resume();
+        }
+    }
+
+    @Override
+    public void handle(Message<Object> message) {
+        if (message.headers().contains(STREAM_CANCEL)) {
+            message.reply(null);
+            close();
+        } else if (error != null) {
+            message.fail(500, error.getMessage());
+        } else if (pending != null) {
+            message.fail(409, "pull in progress");
+        } else if (ended) {
+            replyBatch(message);
+        } else {
+            pending = message;
+            request.resume();
+        }
+    }
+
+    private void onChunk(Buffer chunk) {
+        batch.appendBuffer(chunk);
+        if (batch.length() >= BATCH_BYTES) {
+            request.pause();
+            if (pending != null) {
+                replyBatch(pending);
+                pending = null;
+            }
+        }
+    }
+
+    private void onEnd() {
+        ended = true;
+        if (pending != null) {
+            replyBatch(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * 读完后先回复剩余的数据，再回复结束
+     */
+    private void replyBatch(Message<Object> message) {
+        if (batch.length() > 0) {
+            final var ret = batch;
+            batch = Buffer.buffer();
+            message.reply(ret, LocalBufferCodec.deliveryOptions(message.headers()));
+        } else {
+            message.reply(null, new DeliveryOptions().addHeader(STREAM_END, "1"));
+        }
+    }
+
+    private void onError(Throwable e) {
+        error = e;
+        if (pending != null) {
+            pending.fail(500, e.getMessage());
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.ixtf.api;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 延迟以 start 倒推给出：基准 10ms，10.5ms 视为几乎没有排队，20ms 视为排队严重
+ */
+class ConcurrencyLimiterTest {
+    private static final AtomicInteger ADDRESSES = new AtomicInteger();
+    private static final double BASE = 10;
+    private String address;
+    private ConcurrencyLimiter limiter;
+
+    private static long startBefore(double millis) {
+        return System.nanoTime() - (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @BeforeEach
+    void setUp() {
+        // 限制器按地址共享，每个测试用不同的地址
+        address = "test:limiter:" + ADDRESSES.incrementAndGet();
+        limiter = ConcurrencyLimiter.of(address);
+    }
+
+    /**
+     * 占满 n 个许可
+     */
+    private List<Long> acquire(int n) {
+        final var ret = new ArrayList<Long>();
+        for (var i = 0; i < n; i++) {
+            final var start = limiter.tryAcquire();
+            assertTrue(start > 0);
+            ret.add(start);
+        }
+        return ret;
+    }
+
+    /**
+     * 释放一个许可再占用一个，保持在途数不变
+     */
+    private void cycle(double rttMillis, boolean dropped) {
+        limiter.release(startBefore(rttMillis), dropped);
+        assertTrue(limiter.tryAcquire() > 0);
+    }
+
+    /**
+     * 第一个样本作为基准，不调整上限
+     */
+    private void baseline() {
+        acquire(1);
+        limiter.release(startBefore(BASE), false);
+        assertEquals(20, limiter.limit());
+    }
+
+    @Test
+    void lowQueueIncreasesLimit() {
+        baseline();
+        acquire(20);
+        cycle(BASE + 0.5, false);
+
+        final var log = Math.log10(20);
+        assertEquals(20 + 6 * log / 20, limiter.limit(), 1e-9);
+    }
+
+    @Test
+    void highQueueDecreasesLimit() {
+        baseline();
+        acquire(20);
+        limiter.release(startBefore(BASE * 2), false);
+
+        final var log = Math.log10(20);
+        assertEquals(20 - log / 20, limiter.limit(), 1e-9);
+    }
+
+    @Test
+    void moderateQueueKeepsLimit() {
+        baseline();
+        acquire(20);
+        // 排队约 5 个，介于 3 * log 和 6 * log 之间
+        cycle(BASE * 4 / 3, false);
+
+        assertEquals(20, limiter.limit());
+    }
+
+    @Test
+    void underusedLimitIsNotAdjusted() {
+        baseline();
+        acquire(5);
+        cycle(BASE + 0.5, false);
+        cycle(BASE * 2, false);
+
+        assertEquals(20, limiter.limit());
+    }
+
+    @Test
+    void dropShrinksByLog() {
+        acquire(1);
+        limiter.release(System.nanoTime(), true);
+
+        assertEquals(20 - Math.log10(20), limiter.limit(), 1e-9);
+    }
+
+    @Test
+    void limitIsClampedToMin() {
+        for (var i = 0; i < 100; i++) {
+            acquire(1);
+            limiter.release(System.nanoTime(), true);
+        }
+
+        assertEquals(ConcurrencyLimiter.MIN_LIMIT, limiter.limit());
+        acquire(ConcurrencyLimiter.MIN_LIMIT);
+        assertEquals(-1, limiter.tryAcquire());
+    }
+
+    @Test
+    void limitIsClampedToMax() {
+        baseline();
+        acquire(20);
+        // 在途数跟随上限增长，使上限一直处于用满状态
+        for (var i = 0; i < 1_000_000 && limiter.limit() < ConcurrencyLimiter.MAX_LIMIT; i++) {
+            cycle(BASE + 0.5, false);
+            while (limiter.inFlight() < limiter.limit() - 1) {
+                acquire(1);
+            }
+        }
+
+        assertEquals(ConcurrencyLimiter.MAX_LIMIT, limiter.limit());
+        cycle(BASE + 0.5, false);
+        assertEquals(ConcurrencyLimiter.MAX_LIMIT, limiter.limit());
+    }
+
+    @Test
+    void rejectionsBeforeMeteringAreExported() {
+        acquire(20);
+        assertEquals(-1, limiter.tryAcquire());
+        assertEquals(-1, limiter.tryAcquire());
+        final var registry = new SimpleMeterRegistry();
+        limiter.meter(registry);
+        assertEquals(-1, limiter.tryAcquire());
+
+        final var rejected = registry.get("japp.api.rejected").tag("address", address).functionCounter();
+        assertEquals(3, rejected.count());
+    }
+
+    @Test
+    void noHandlersEvictsIdleUnmeteredLimiter() {
+        limiter.noHandlers();
+
+        assertNotSame(limiter, ConcurrencyLimiter.of(address));
+    }
+
+    @Test
+    void noHandlersKeepsBusyOrMeteredLimiter() {
+        final var start = limiter.tryAcquire();
+        limiter.noHandlers();
+        assertSame(limiter, ConcurrencyLimiter.of(address));
+
+        limiter.release(start, false);
+        limiter.meter(null);
+        limiter.noHandlers();
+        assertSame(limiter, ConcurrencyLimiter.of(address));
+    }
+}
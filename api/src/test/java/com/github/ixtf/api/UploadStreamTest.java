@@ -0,0 +1,114 @@
+package com.github.ixtf.api;
+
+import com.github.ixtf.api.protocol.LocalBufferCodec;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static com.github.ixtf.api.protocol.ApiProtocol.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 真实的 http 请求经 UploadStream 由 event bus 拉取，按服务端 FluxStream.pull 的方式逐次拉取
+ */
+class UploadStreamTest {
+    private static final int CHUNK = 8 * 1024;
+    private static final int CHUNKS = 128;
+    private Vertx vertx;
+    private HttpClient client;
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 拉取到结束，max 次后取消，返回每次拉取的字节数
+     */
+    private static Future<List<Integer>> pull(Vertx vertx, String address, int max, List<Integer> ret) {
+        if (ret.size() >= max) {
+            return vertx.eventBus().request(address, null, new DeliveryOptions().addHeader(STREAM_CANCEL, "1")).map(ret);
+        }
+        return vertx.eventBus().<Buffer>request(address, null, new DeliveryOptions().addHeader(CODEC, "1")).compose(it -> {
+            if (it.headers().contains(STREAM_END)) {
+                return Future.succeededFuture(ret);
+            }
+            ret.add(it.body().length());
+            return pull(vertx, address, max, ret);
+        });
+    }
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        LocalBufferCodec.register(vertx);
+        client = vertx.createHttpClient(new HttpClientOptions().setKeepAlive(true).setMaxPoolSize(1));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        await(vertx.close());
+    }
+
+    private int listen(BiFunction<HttpServerRequest, UploadStream, Future<List<Integer>>> handler) throws Exception {
+        final HttpServer server = await(vertx.createHttpServer().requestHandler(request -> UploadStream.start(vertx, "test:upload", request)
+                .compose(upload -> handler.apply(request, upload).onComplete(__ -> upload.close()))
+                .onSuccess(it -> request.response().end(it.toString()))
+                .onFailure(e -> request.response().setStatusCode(500).end(e.getMessage()))).listen(0));
+        return server.actualPort();
+    }
+
+    /**
+     * 响应体在收到响应的回调中读取，在测试线程上 await 之后再读时响应体可能已经到达并被丢弃
+     */
+    private Future<Response> upload(int port) {
+        final var body = Buffer.buffer(new byte[CHUNK]);
+        return client.request(HttpMethod.POST, port, "localhost", "/").compose(request -> {
+            request.setChunked(true);
+            for (var i = 0; i < CHUNKS; i++) {
+                request.write(body);
+            }
+            return request.send();
+        }).compose(response -> response.body().map(it -> new Response(response.statusCode(), it.toString())));
+    }
+
+    @Test
+    void pullsAreBatched() throws Exception {
+        final var port = listen((request, upload) -> pull(vertx, upload.address(), Integer.MAX_VALUE, new ArrayList<>()));
+        final var response = await(upload(port));
+        final var sizes = response.body();
+        final var pulls = sizes.substring(1, sizes.length() - 1).split(", ");
+
+        assertEquals(200, response.status());
+        assertEquals(CHUNK * CHUNKS, List.of(pulls).stream().mapToInt(Integer::parseInt).sum());
+        // 1MB 的请求体分 128 块写入，按 BATCH_BYTES 合并
+        assertTrue(pulls.length <= CHUNK * CHUNKS / BATCH_BYTES + 1, sizes);
+    }
+
+    @Test
+    void unreadBodyIsDrainedAfterClose() throws Exception {
+        final var port = listen((request, upload) -> pull(vertx, upload.address(), 1, new ArrayList<>()));
+        final var first = await(upload(port));
+        final var second = await(upload(port));
+
+        assertEquals(200, first.status());
+        assertEquals(200, second.status());
+    }
+
+    private record Response(int status, String body) {
+    }
+}
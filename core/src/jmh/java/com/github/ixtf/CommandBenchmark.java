@@ -0,0 +1,73 @@
+package com.github.ixtf;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.validation.Validation;
+import jakarta.validation.constraints.NotBlank;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.ixtf.Constant.MAPPER;
+
+/** 请求体绑定为 command 并校验：每次创建 ValidatorFactory，对比缓存的 Validator 和 ObjectReader */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+  private final byte[] bytes =
+      "{\"name\":\"name\",\"note\":\"note\"}".getBytes(StandardCharsets.UTF_8);
+  private ObjectReader reader;
+
+  @Setup
+  public void setup() {
+    reader = J.commandReader(ConstrainedCommand.class);
+  }
+
+  /** 原先的实现 */
+  @Benchmark
+  public Object perCall() throws Exception {
+    final var command = MAPPER.readValue(bytes, ConstrainedCommand.class);
+    final var violations =
+        Validation.buildDefaultValidatorFactory().getValidator().validate(command);
+    return violations.isEmpty() ? command : violations;
+  }
+
+  @Benchmark
+  public Object cached() {
+    return J.checkAndGetCommand(reader, bytes);
+  }
+
+  @Benchmark
+  public Object cachedByClass() {
+    return J.checkAndGetCommand(ConstrainedCommand.class, bytes);
+  }
+
+  /** 没有约束的类型跳过校验 */
+  @Benchmark
+  public Object unconstrained() {
+    return J.checkAndGetCommand(Command.class, bytes);
+  }
+
+  public static class ConstrainedCommand {
+    @NotBlank public String name;
+    public String note;
+  }
+
+  public static class Command {
+    public String name;
+    public String note;
+  }
+}
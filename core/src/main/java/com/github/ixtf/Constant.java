@@ -5,26 +5,32 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 
 /**
  * Created by jzb on 15-12-5.
  */
 public class Constant {
-    public static final ObjectMapper MAPPER = new ObjectMapper()
-            .registerModule(new ParameterNamesModule())
-            .registerModule(new Jdk8Module())
-            .registerModule(new JavaTimeModule())
-            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
-            .enable(DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY)
-            .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
-    public static final ObjectMapper YAML_MAPPER = new YAMLMapper()
-            .registerModule(new ParameterNamesModule())
-            .registerModule(new Jdk8Module())
-            .registerModule(new JavaTimeModule())
-            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
-            .enable(DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY)
-            .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+    /**
+     * -Djapp.jackson.blackbird=true 时以 LambdaMetafactory 生成的访问器代替反射读写属性
+     */
+    public static final boolean JACKSON_BLACKBIRD = Boolean.getBoolean("japp.jackson.blackbird");
+    public static final ObjectMapper MAPPER = configure(new ObjectMapper());
+    public static final ObjectMapper YAML_MAPPER = configure(new YAMLMapper());
+
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.registerModule(new ParameterNamesModule())
+                .registerModule(new Jdk8Module())
+                .registerModule(new JavaTimeModule())
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .enable(DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY)
+                .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+        if (JACKSON_BLACKBIRD) {
+            mapper.registerModule(new BlackbirdModule());
+        }
+        return mapper;
+    }
 
 //    public static final Pattern ZH_CN_YPP = Pattern.compile("([\u4e00-\u9fa5]+)");
 
@@ -2,9 +2,11 @@ package com.github.ixtf;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.github.ixtf.cli.SaferExec;
 import jakarta.validation.ConstraintViolationException;
 import jakarta.validation.Validation;
+import jakarta.validation.Validator;
 import lombok.Cleanup;
 import lombok.SneakyThrows;
 import org.apache.commons.collections4.CollectionUtils;
@@ -33,6 +35,26 @@ import static java.util.Optional.ofNullable;
 
 public class J {
 
+  /** 首次使用时才初始化 Hibernate Validator */
+  private static class Commands {
+    private static final Validator VALIDATOR =
+        Validation.buildDefaultValidatorFactory().getValidator();
+    private static final ClassValue<Boolean> CONSTRAINED =
+        new ClassValue<>() {
+          @Override
+          protected Boolean computeValue(Class<?> type) {
+            return VALIDATOR.getConstraintsForClass(type).isBeanConstrained();
+          }
+        };
+    private static final ClassValue<ObjectReader> READERS =
+        new ClassValue<>() {
+          @Override
+          protected ObjectReader computeValue(Class<?> type) {
+            return MAPPER.readerFor(type);
+          }
+        };
+  }
+
   @SneakyThrows
   public static <T> Class<T> actualClass(Class<T> clazz) {
     final var className = clazz.getName();
@@ -273,25 +295,36 @@ public class J {
     return CollectionUtils.emptyIfNull(collection);
   }
 
+  /** 没有约束的类型不做校验 */
   public static <T> T checkAndGetCommand(T command) {
-    final var validatorFactory = Validation.buildDefaultValidatorFactory();
-    final var validator = validatorFactory.getValidator();
-    final var violations = validator.validate(command);
+    if (command != null && !Commands.CONSTRAINED.get(command.getClass())) {
+      return command;
+    }
+    final var violations = Commands.VALIDATOR.validate(command);
     if (J.nonEmpty(violations)) {
       throw new ConstraintViolationException(violations);
     }
     return command;
   }
 
+  /** @return 按类型缓存的 ObjectReader，注册 handler 时解析一次 */
+  public static ObjectReader commandReader(Class<?> clazz) {
+    return Commands.READERS.get(clazz);
+  }
+
   @SneakyThrows(IOException.class)
-  public static <T> T checkAndGetCommand(Class<T> clazz, byte[] bytes) {
-    final T command = MAPPER.readValue(bytes, clazz);
+  public static <T> T checkAndGetCommand(ObjectReader reader, byte[] bytes) {
+    final T command = reader.readValue(bytes);
     return checkAndGetCommand(command);
   }
 
+  public static <T> T checkAndGetCommand(Class<T> clazz, byte[] bytes) {
+    return checkAndGetCommand(commandReader(clazz), bytes);
+  }
+
   @SneakyThrows(JsonProcessingException.class)
   public static <T> T checkAndGetCommand(Class<T> clazz, String json) {
-    final T command = MAPPER.readValue(json, clazz);
+    final T command = commandReader(clazz).readValue(json);
     return checkAndGetCommand(command);
   }
 
@@ -0,0 +1,158 @@
+package com.github.ixtf.mongo;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/** MongoEntityBase 子类的编解码：驱动默认的反射 PojoCodec 与 JmongoEntityCodecProvider */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityCodecBenchmark {
+  private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+  private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+  private final Order order = new Order();
+  private Codec<Order> reflective;
+  private Codec<Order> generated;
+  private BsonDocument document;
+
+  private static <T> BsonDocument encode(Codec<T> codec, T value) {
+    final var ret = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(ret), value, ENCODER_CONTEXT);
+    return ret;
+  }
+
+  @Setup
+  public void setup() {
+    reflective =
+        fromRegistries(
+                MongoClientSettings.getDefaultCodecRegistry(),
+                fromProviders(PojoCodecProvider.builder().automatic(true).build()))
+            .get(Order.class);
+    generated =
+        fromRegistries(
+                MongoClientSettings.getDefaultCodecRegistry(),
+                fromProviders(new JmongoEntityCodecProvider()))
+            .get(Order.class);
+    order.setId("o1");
+    order.setCode("code");
+    order.setNote("note");
+    order.setCount(3);
+    order.setAmount(1.5);
+    order.setPaid(true);
+    order.setTags(List.of("a", "b"));
+    order.setCreateDateTime(new Date());
+    document = encode(reflective, order);
+  }
+
+  @Benchmark
+  public BsonDocument encodeReflective() {
+    return encode(reflective, order);
+  }
+
+  @Benchmark
+  public BsonDocument encodeGenerated() {
+    return encode(generated, order);
+  }
+
+  @Benchmark
+  public Order decodeReflective() {
+    return reflective.decode(new BsonDocumentReader(document), DECODER_CONTEXT);
+  }
+
+  @Benchmark
+  public Order decodeGenerated() {
+    return generated.decode(new BsonDocumentReader(document), DECODER_CONTEXT);
+  }
+
+  public static class Order extends MongoEntityBase {
+    private String code;
+    private String note;
+    private int count;
+    private double amount;
+    private boolean paid;
+    private List<String> tags;
+    private Date createDateTime;
+
+    public String getCode() {
+      return code;
+    }
+
+    public void setCode(String code) {
+      this.code = code;
+    }
+
+    public String getNote() {
+      return note;
+    }
+
+    public void setNote(String note) {
+      this.note = note;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public void setCount(int count) {
+      this.count = count;
+    }
+
+    public double getAmount() {
+      return amount;
+    }
+
+    public void setAmount(double amount) {
+      this.amount = amount;
+    }
+
+    public boolean isPaid() {
+      return paid;
+    }
+
+    public void setPaid(boolean paid) {
+      this.paid = paid;
+    }
+
+    public List<String> getTags() {
+      return tags;
+    }
+
+    public void setTags(List<String> tags) {
+      this.tags = tags;
+    }
+
+    public Date getCreateDateTime() {
+      return createDateTime;
+    }
+
+    public void setCreateDateTime(Date createDateTime) {
+      this.createDateTime = createDateTime;
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package com.github.ixtf.mongo;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.ixtf.J;
+import com.github.ixtf.persistence.CommitResult;
+import com.github.ixtf.persistence.UnitOfWork;
 import com.google.inject.Inject;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import lombok.AccessLevel;
@@ -10,6 +14,7 @@ import lombok.SneakyThrows;
 import org.apache.commons.lang3.Validate;
 import org.bson.types.ObjectId;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
@@ -23,6 +28,8 @@ public abstract class BaseRepositoryJmongo<T extends MongoEntityBase>
 
   @Getter(lazy = true, value = AccessLevel.PROTECTED)
   private final LoadingCache<String, T> cache = _cacheBuilder().build(this::find);
+  /** create 和 build 未命中时新建、尚未写入的实体，按引用比较，丢弃后自动移除；save 时按新增处理 */
+  private final Cache<T, Boolean> created = Caffeine.newBuilder().weakKeys().build();
 
   @Override
   public T build(String id) {
@@ -57,18 +64,63 @@ public abstract class BaseRepositoryJmongo<T extends MongoEntityBase>
   public T create() {
     final var entity = entityClass.getDeclaredConstructor().newInstance();
     entity.setId(ObjectId.get().toHexString());
+    created.put(entity, true);
     return entity;
   }
 
   @Override
   public void insert(T entity) {
-    jmongo.uow().registerNew(entity).commit();
-    getCache().put(entity.getId(), entity);
+    insertAsync(entity).block();
+  }
+
+  @Override
+  public Mono<T> insertAsync(T entity) {
+    return Mono.defer(() -> commitAsync(jmongo.uow().registerNew(entity)))
+        .doOnSuccess(
+            __ -> {
+              created.invalidate(entity);
+              getCache().put(entity.getId(), entity);
+            })
+        .thenReturn(entity);
   }
 
   @Override
   public void update(T entity) {
-    jmongo.uow().registerDirty(entity).commit();
+    updateAsync(entity).block();
+  }
+
+  @Override
+  public Mono<T> updateAsync(T entity) {
+    return Mono.defer(() -> commitAsync(jmongo.uow().registerDirty(entity)))
+        .doOnSuccess(__ -> refreshCache(entity))
+        .thenReturn(entity);
+  }
+
+  /**
+   * 常驻内存中存在即视为已持久化；由 create 或 build 新建、尚未写入的实体按新增写入，触发 PrePersist；其余以 upsert 写入，不再额外查询是否存在
+   */
+  @Override
+  public void save(T entity) {
+    saveAsync(entity).block();
+  }
+
+  @Override
+  public Mono<T> saveAsync(T entity) {
+    return Mono.defer(
+        () -> {
+          if (isPersisted(entity)) {
+            return updateAsync(entity);
+          }
+          if (created.getIfPresent(entity) != null) {
+            return insertAsync(entity);
+          }
+          return commitAsync(jmongo.uow().registerSave(entity))
+              .doOnSuccess(__ -> refreshCache(entity))
+              .thenReturn(entity);
+        });
+  }
+
+  private void refreshCache(T entity) {
     if (entity.isDeleted()) {
       getCache().invalidate(entity.getId());
     } else {
@@ -76,6 +128,10 @@ public abstract class BaseRepositoryJmongo<T extends MongoEntityBase>
     }
   }
 
+  protected boolean isPersisted(T entity) {
+    return J.nonBlank(entity.getId()) && getCache().getIfPresent(entity.getId()) != null;
+  }
+
   @Override
   public T find(String id) {
     return jmongo.find(entityClass, id).block();
@@ -86,11 +142,25 @@ public abstract class BaseRepositoryJmongo<T extends MongoEntityBase>
     return jmongo.list(entityClass);
   }
 
+  @Override
+  public <V> Flux<V> list(Class<V> viewClass) {
+    return jmongo.list(entityClass, viewClass);
+  }
+
   @Override
   public void delete(T entity) {
-    entity.setDeleted(true);
-    jmongo.uow().registerDirty(entity).commit();
-    invalidateBuild(entity);
+    deleteAsync(entity).block();
+  }
+
+  @Override
+  public Mono<T> deleteAsync(T entity) {
+    return Mono.defer(
+        () -> {
+          entity.setDeleted(true);
+          return commitAsync(jmongo.uow().registerDirty(entity));
+        })
+        .doOnSuccess(__ -> invalidateBuild(entity))
+        .thenReturn(entity);
   }
 
   /**
@@ -113,6 +183,10 @@ public abstract class BaseRepositoryJmongo<T extends MongoEntityBase>
     return jmongo.entityCollection(entityClass);
   }
 
+  protected Mono<CommitResult> commitAsync(UnitOfWork uow) {
+    return uow.commitAsync().map(CommitResult::throwIfFailed);
+  }
+
   protected Caffeine<Object, Object> _cacheBuilder() {
     return Caffeine.newBuilder();
   }
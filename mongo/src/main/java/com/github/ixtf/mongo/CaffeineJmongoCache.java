@@ -0,0 +1,200 @@
+package com.github.ixtf.mongo;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.github.ixtf.mongo.Jmongo.ID_COL;
+import static java.util.Optional.ofNullable;
+
+/**
+ * 本地 Caffeine 缓存，按实体类分别配置容量和过期时间
+ *
+ * <p>缓存的是 BSON 文档，每次读取解码出新的实体，调用方修改实体不会影响缓存和其他调用方
+ *
+ * <p>副本集/分片集群上通过 change stream 失效其他节点写入的实体；单机部署不支持 change stream，只有本节点的
+ * {@link MongoUnitOfWork} 提交会失效缓存
+ */
+@Slf4j
+@Singleton
+public class CaffeineJmongoCache implements JmongoCache {
+  /** 只需要 documentKey 判断失效哪个实体，_id 作为 resume token 保留 */
+  private static final List<Bson> WATCH_PIPELINE =
+      List.of(Aggregates.project(Projections.include("operationType", "documentKey")));
+
+  private final Map<Class<?>, Optional<Entry>> caches = new ConcurrentHashMap<>();
+  @Inject private Jmongo jmongo;
+  private volatile boolean closed;
+
+  /** change stream 中的 _id 与调用方传入的 id 统一为同一个 key */
+  private static Object key(Object id) {
+    if (id instanceof final BsonString bsonString) {
+      return bsonString.getValue();
+    }
+    if (id instanceof final BsonObjectId bsonObjectId) {
+      return bsonObjectId.getValue().toHexString();
+    }
+    if (id instanceof final ObjectId objectId) {
+      return objectId.toHexString();
+    }
+    return id;
+  }
+
+  @Override
+  public <T> Mono<T> get(Class<T> clazz, Object id, Function<Object, Mono<T>> loader) {
+    return cache(clazz)
+        .map(
+            entry ->
+                Mono.fromFuture(() -> entry.get(key(id), () -> loader.apply(id).map(jmongo::toBsonDocument)))
+                    .map(it -> jmongo.fromBsonDocument(it, clazz)))
+        .orElseGet(() -> loader.apply(id));
+  }
+
+  /** 加载中或加载结果为空的不算 */
+  @Override
+  public boolean contains(Class<?> clazz, Object id) {
+    return caches
+        .getOrDefault(clazz, Optional.empty())
+        .map(it -> it.cache.getIfPresent(key(id)))
+        .filter(it -> it.isDone() && !it.isCompletedExceptionally())
+        .map(CompletableFuture::join)
+        .isPresent();
+  }
+
+  @Override
+  public void invalidate(Class<?> clazz, Object id) {
+    caches.getOrDefault(clazz, Optional.empty()).ifPresent(it -> it.invalidate(key(id)));
+  }
+
+  @Override
+  public void invalidateAll(Class<?> clazz) {
+    caches.getOrDefault(clazz, Optional.empty()).ifPresent(Entry::invalidateAll);
+  }
+
+  @Override
+  public Optional<CacheStats> stats(Class<?> clazz) {
+    return caches.getOrDefault(clazz, Optional.empty()).map(it -> it.cache.synchronous().stats());
+  }
+
+  /** 停止所有 change stream 并清空缓存，之后不再缓存 */
+  @Override
+  public void close() {
+    closed = true;
+    caches.values().forEach(it -> it.ifPresent(Entry::close));
+    caches.clear();
+  }
+
+  private Optional<Entry> cache(Class<?> clazz) {
+    if (closed) {
+      return Optional.empty();
+    }
+    return caches.computeIfAbsent(clazz, this::build);
+  }
+
+  private Optional<Entry> build(Class<?> clazz) {
+    return ofNullable(clazz.getAnnotation(MongoEntity.class))
+        .filter(it -> it.cacheSize() > 0)
+        .map(
+            it -> {
+              final var builder = Caffeine.newBuilder().maximumSize(it.cacheSize()).recordStats();
+              if (it.cacheTtl() > 0) {
+                builder.expireAfterWrite(Duration.ofSeconds(it.cacheTtl()));
+              }
+              final var entry = new Entry(builder.buildAsync());
+              entry.watch = watch(clazz, entry);
+              return entry;
+            });
+  }
+
+  /** 每次（重新）订阅都清空缓存，断开期间错过的变更不会留下脏数据 */
+  protected Disposable watch(Class<?> clazz, Entry entry) {
+    return jmongo
+        .transactionSupported()
+        .filter(Boolean::booleanValue)
+        .flatMapMany(
+            __ ->
+                Flux.defer(() -> jmongo.bsonDocumentCollection(clazz).watch(WATCH_PIPELINE, BsonDocument.class))
+                    .doOnSubscribe(s -> entry.invalidateAll())
+                    .retryWhen(
+                        Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                            .maxBackoff(Duration.ofMinutes(1))
+                            .doBeforeRetry(it -> log.error("watch " + clazz, it.failure())))
+                    .repeatWhen(it -> it.delayElements(Duration.ofSeconds(1))))
+        .subscribe(it -> onChange(entry, it), e -> log.error("watch " + clazz, e));
+  }
+
+  private void onChange(Entry entry, ChangeStreamDocument<BsonDocument> event) {
+    switch (event.getOperationType()) {
+      case INSERT, UPDATE, REPLACE, DELETE -> ofNullable(event.getDocumentKey())
+          .map(it -> it.get(ID_COL))
+          .ifPresentOrElse(it -> entry.invalidate(key(it)), entry::invalidateAll);
+      default -> entry.invalidateAll();
+    }
+  }
+
+  /**
+   * 一个实体类的缓存。每次失效都递增 generation，加载开始后发生过失效的结果不留在缓存中，避免加载中读到的旧文档在失效后重新进入缓存
+   */
+  protected static class Entry {
+    private final AsyncCache<Object, BsonDocument> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Disposable watch;
+
+    private Entry(AsyncCache<Object, BsonDocument> cache) {
+      this.cache = cache;
+    }
+
+    private CompletableFuture<BsonDocument> get(Object key, Supplier<Mono<BsonDocument>> loader) {
+      final var start = generation.get();
+      final var future = cache.get(key, (k, executor) -> loader.get().toFuture());
+      future.whenComplete(
+          (v, e) -> {
+            if (generation.get() != start) {
+              cache.asMap().remove(key, future);
+            }
+          });
+      // copy 后取消订阅不会取消其他调用方共享的加载
+      return future.copy();
+    }
+
+    private void invalidate(Object key) {
+      generation.incrementAndGet();
+      cache.synchronous().invalidate(key);
+    }
+
+    private void invalidateAll() {
+      generation.incrementAndGet();
+      cache.synchronous().invalidateAll();
+    }
+
+    private void close() {
+      ofNullable(watch).ifPresent(Disposable::dispose);
+      invalidateAll();
+    }
+  }
+}
@@ -3,42 +3,129 @@ package com.github.ixtf.mongo;
 import com.github.ixtf.J;
 import com.github.ixtf.data.EntityDTO;
 import com.github.ixtf.persistence.IEntity;
+import com.github.ixtf.persistence.SeekPage;
 import com.github.ixtf.persistence.Sort;
+import com.github.ixtf.persistence.SortStart;
+import com.google.inject.Singleton;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.reactivestreams.client.FindPublisher;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import com.mongodb.reactivestreams.client.MongoDatabase;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.commons.lang3.Validate;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
 import org.bson.BsonDocumentReader;
 import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.ByteBuffer;
 import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import static com.github.ixtf.guice.GuiceModule.getInstance;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
 import static java.util.Optional.ofNullable;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 import static java.util.stream.Collectors.toUnmodifiableList;
 
+/** 无状态，codec 等解析结果按实例缓存，因此为单例 */
+@Singleton
 public class Jmongo {
   public static final String ID_COL = "_id";
   public static final String DELETED_COL = "deleted";
   public static final Mono<Bson> DELETED_FILTER$ = Mono.fromCallable(() -> eq(DELETED_COL, false));
   public static final int DEFAULT_BATCH_SIZE = 10_000;
 
+  /** 副本集或分片集群才支持事务，结果缓存，出错不缓存 */
+  private static final Mono<Boolean> TRANSACTION_SUPPORTED$ =
+      Mono.defer(
+              () -> {
+                final var database = getInstance(MongoDatabase.class);
+                // 4.4.2 之前的版本没有 hello
+                return Mono.from(database.runCommand(new Document("hello", 1)))
+                    .onErrorResume(
+                        MongoCommandException.class,
+                        e -> Mono.from(database.runCommand(new Document("isMaster", 1))));
+              })
+          .map(it -> it.containsKey("setName") || "isdbgrid".equals(it.getString("msg")))
+          .cache(it -> Duration.ofMillis(Long.MAX_VALUE), e -> Duration.ZERO, () -> Duration.ZERO);
+
+  /** 可以作为 seek 排序键的类型 */
+  private static final Set<BsonType> CURSOR_TYPES =
+      EnumSet.of(
+          BsonType.NULL,
+          BsonType.BOOLEAN,
+          BsonType.INT32,
+          BsonType.INT64,
+          BsonType.DOUBLE,
+          BsonType.DECIMAL128,
+          BsonType.STRING,
+          BsonType.OBJECT_ID,
+          BsonType.DATE_TIME,
+          BsonType.TIMESTAMP);
+
+  private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+  private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+  /** 以下均只从 Guice 取一次 */
+  @Getter(lazy = true)
+  private final CodecRegistry codecRegistry = getInstance(CodecRegistry.class);
+
+  @Getter(value = AccessLevel.PRIVATE, lazy = true)
+  private final JmongoCache jmongoCache = getInstance(JmongoCache.class);
+
+  @Getter(value = AccessLevel.PRIVATE, lazy = true)
+  private final MongoClient mongoClient = getInstance(MongoClient.class);
+
+  @Getter(value = AccessLevel.PRIVATE, lazy = true)
+  private final MongoDatabase mongoDatabase = getInstance(MongoDatabase.class);
+
+  private final Map<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+  /** 视图解码器及包含它的 CodecRegistry，每个视图类型只创建一次 */
+  private final Map<Class<?>, View<?>> views = new ConcurrentHashMap<>();
+
   public static Mono<Bson> $match(Flux<Bson> condition$) {
     return Flux.merge(condition$, DELETED_FILTER$)
         .collectList()
@@ -83,10 +170,19 @@ public class Jmongo {
     return Optional.of(collect).filter(J::nonEmpty).map(Sorts::orderBy);
   }
 
+  /** 分页时以 $facet 一次往返返回总数和当前页，代替 count 加 query 两次查询 */
+  public <T> JmongoAggregate<T> aggregate(Class<T> clazz) {
+    return new JmongoAggregate<>(this, clazz);
+  }
+
   public MongoUnitOfWork uow() {
     return new MongoUnitOfWork(this);
   }
 
+  public Mono<Boolean> transactionSupported() {
+    return TRANSACTION_SUPPORTED$;
+  }
+
   public <T> Mono<T> find(MongoCollection<T> collection, Object id) {
     return Flux.defer(() -> collection.find(eq(ID_COL, id)).batchSize(1)).next();
   }
@@ -99,29 +195,38 @@ public class Jmongo {
     return exists(entity.getClass(), entity.getId());
   }
 
+  /**
+   * 组装条件时会阻塞调用线程
+   *
+   * @deprecated 使用 {@link #find(MongoCollection, Publisher, JmongoQuery)}
+   */
+  @Deprecated
   public <T> FindPublisher<T> findPublisher(
       MongoCollection<T> collection, Publisher<Bson> filter$) {
     return Flux.defer(() -> filter$)
         .collectList()
-        .map(
-            filters -> {
-              if (J.isEmpty(filters)) {
-                return collection.find().batchSize(DEFAULT_BATCH_SIZE).allowDiskUse(true);
-              } else if (filters.size() == 1) {
-                return collection
-                    .find(filters.get(0))
-                    .batchSize(DEFAULT_BATCH_SIZE)
-                    .allowDiskUse(true);
-              } else {
-                return collection
-                    .find(and(filters))
-                    .batchSize(DEFAULT_BATCH_SIZE)
-                    .allowDiskUse(true);
-              }
-            })
+        .map(filters -> JmongoQuery.of().apply(findPublisher(collection, filters)))
         .block();
   }
 
+  /** 条件和查询都不阻塞，在订阅时组装 */
+  public <T> Flux<T> find(
+      MongoCollection<T> collection, Publisher<Bson> filter$, JmongoQuery query) {
+    return Flux.defer(() -> filter$)
+        .collectList()
+        .flatMapMany(filters -> query.apply(findPublisher(collection, filters)));
+  }
+
+  private <T> FindPublisher<T> findPublisher(MongoCollection<T> collection, List<Bson> filters) {
+    if (J.isEmpty(filters)) {
+      return collection.find();
+    } else if (filters.size() == 1) {
+      return collection.find(filters.get(0));
+    } else {
+      return collection.find(and(filters));
+    }
+  }
+
   public Mono<Long> countCollection(MongoCollection collection, Publisher<Bson> filter$) {
     return Flux.defer(() -> filter$)
         .collectList()
@@ -139,8 +244,58 @@ public class Jmongo {
   }
 
   public <T> Mono<T> find(Class<T> clazz, Object id) {
-    // todo add cache
-    return find(entityCollection(clazz), id);
+    return cache().get(clazz, id, it -> find(entityCollection(clazz), it));
+  }
+
+  /**
+   * 按 (database, collection) 分组，每组一次 $in 查询，重复的 ref 只查询一次
+   *
+   * <p>ref 的 id 是字符串，_id 以字符串或 ObjectId 存储的文档都能查到
+   *
+   * @param refs refs
+   * @return 不存在的 ref 不在结果中
+   */
+  public Mono<Map<JmongoRef, BsonDocument>> find(Collection<JmongoRef> refs) {
+    return Flux.fromIterable(refs)
+        .distinct()
+        .groupBy(it -> Arrays.asList(it.getDatabaseName(), it.getCollectionName()))
+        .flatMap(
+            group ->
+                group
+                    .collectMap(JmongoRef::getId)
+                    .flatMapMany(
+                        map -> {
+                          final var collection = collection(map.values().iterator().next());
+                          final var ids = new ArrayList<BsonValue>(map.size());
+                          map.keySet()
+                              .forEach(
+                                  id -> {
+                                    ids.add(new BsonString(id));
+                                    if (ObjectId.isValid(id)) {
+                                      ids.add(new BsonObjectId(new ObjectId(id)));
+                                    }
+                                  });
+                          return Flux.from(collection.find(in(ID_COL, ids)).batchSize(map.size()))
+                              .flatMap(
+                                  it ->
+                                      Mono.justOrEmpty(refId(it.get(ID_COL)))
+                                          .mapNotNull(map::get)
+                                          .map(ref -> Map.entry(ref, it)));
+                        }))
+        .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+  }
+
+  private static Optional<String> refId(BsonValue id) {
+    if (id == null) {
+      return Optional.empty();
+    }
+    if (id.isString()) {
+      return Optional.of(id.asString().getValue());
+    }
+    if (id.isObjectId()) {
+      return Optional.of(id.asObjectId().getValue().toHexString());
+    }
+    return Optional.empty();
   }
 
   public <T> Mono<T> find(Class<T> clazz, Principal principal) {
@@ -151,12 +306,16 @@ public class Jmongo {
     return find(clazz, dto.getId());
   }
 
+  public JmongoCache cache() {
+    return getJmongoCache();
+  }
+
   public MongoClient client() {
-    return getInstance(MongoClient.class);
+    return getMongoClient();
   }
 
   public MongoDatabase database() {
-    return getInstance(MongoDatabase.class);
+    return getMongoDatabase();
   }
 
   public MongoDatabase database(Class<?> clazz) {
@@ -182,34 +341,120 @@ public class Jmongo {
     return database(clazz).getCollection(collectionName(clazz), clazz);
   }
 
+  public MongoCollection<BsonDocument> collection(JmongoRef ref) {
+    return ofNullable(ref.getDatabaseName())
+        .map(client()::getDatabase)
+        .orElseGet(this::database)
+        .getCollection(ref.getCollectionName(), BsonDocument.class);
+  }
+
   public <T> MongoCollection<BsonDocument> bsonDocumentCollection(Class<T> clazz) {
     return database(clazz).getCollection(collectionName(clazz), BsonDocument.class);
   }
 
+  /** 每个类型只从 CodecRegistry 解析一次 */
+  @SuppressWarnings("unchecked")
+  public <T> Codec<T> codec(Class<T> clazz) {
+    return (Codec<T>) codecs.computeIfAbsent(clazz, it -> getCodecRegistry().get(it));
+  }
+
+  /**
+   * MongoEntityBase 的 id 总是以字符串存储，直接取值，不编码整个实体
+   *
+   * @return _id
+   */
+  public BsonValue id(IEntity entity) {
+    if (entity instanceof MongoEntityBase) {
+      return new BsonString(entity.getId());
+    }
+    return toBsonDocument(entity).get(ID_COL);
+  }
+
   public BsonDocument toBsonDocument(Object entity) {
     final var bsonDocument = new BsonDocument();
     final var writer = new BsonDocumentWriter(bsonDocument);
-    final var encoderContext = EncoderContext.builder().build();
-    final var codecRegistry = getInstance(CodecRegistry.class);
-    final Codec codec = codecRegistry.get(entity.getClass());
-    codec.encode(writer, entity, encoderContext);
+    final Codec codec = codec(entity.getClass());
+    codec.encode(writer, entity, ENCODER_CONTEXT);
     return bsonDocument;
   }
 
   public <T> T fromBsonDocument(BsonDocument bsonDocument, Class<T> clazz) {
     final var reader = new BsonDocumentReader(bsonDocument);
-    final var registry = getInstance(CodecRegistry.class);
-    final var codec = registry.get(clazz);
-    return codec.decode(reader, DecoderContext.builder().build());
+    return codec(clazz).decode(reader, DECODER_CONTEXT);
   }
 
   public <T extends MongoEntityBase> Flux<T> list(Class<T> clazz) {
-    return Flux.defer(() -> findPublisher(entityCollection(clazz), DELETED_FILTER$));
+    return find(entityCollection(clazz), DELETED_FILTER$, JmongoQuery.of());
+  }
+
+  public <T> Flux<T> query(Class<T> clazz, Publisher<Bson> filter$, JmongoQuery query) {
+    return find(entityCollection(clazz), Flux.merge(filter$, DELETED_FILTER$), query);
+  }
+
+  /**
+   * 只查询并解码视图中的字段
+   *
+   * @param viewClass record 或带无参构造的类，见 {@link JmongoViewCodec}
+   * @param query 不会被修改，其中的 projection 被视图的字段代替
+   */
+  public <V> Flux<V> query(
+      Class<?> clazz, Publisher<Bson> filter$, Class<V> viewClass, JmongoQuery query) {
+    final var view = view(viewClass);
+    final var collection =
+        database(clazz)
+            .getCollection(collectionName(clazz), viewClass)
+            .withCodecRegistry(view.registry());
+    return find(
+        collection,
+        Flux.merge(filter$, DELETED_FILTER$),
+        query.copy().setProjection(view.codec().getProjection()));
+  }
+
+  public <V> Flux<V> query(Class<?> clazz, Publisher<Bson> filter$, Class<V> viewClass) {
+    return query(clazz, filter$, viewClass, JmongoQuery.of());
+  }
+
+  public <V> Flux<V> list(Class<? extends MongoEntityBase> clazz, Class<V> viewClass) {
+    return query(clazz, Flux.empty(), viewClass);
+  }
+
+  public <V> Flux<V> autocomplete(
+      Class<?> clazz, Publisher<Bson> filter$, Class<V> viewClass, int limit) {
+    final var max = Math.max(limit, 10);
+    return query(clazz, filter$, viewClass, JmongoQuery.of().setLimit(max).setBatchSize(max));
+  }
+
+  private <V> View<V> view(Class<V> viewClass) {
+    return (View<V>)
+        views.computeIfAbsent(
+            viewClass,
+            it -> {
+              final var codec = new JmongoViewCodec<>(it, getCodecRegistry());
+              return new View<>(codec, fromRegistries(fromCodecs(codec), getCodecRegistry()));
+            });
+  }
+
+  private record View<V>(JmongoViewCodec<V> codec, CodecRegistry registry) {}
+
+  /**
+   * 不解码为实体，直接返回服务端的 BSON 字节，适合原样转发的只读接口
+   *
+   * <p>api 以 BsonJson 写出，按 BSON 类型而不是实体的 Jackson 配置，java.time 日期和 Jackson 注解与 MAPPER 不同
+   *
+   * @see #find(MongoCollection, Publisher, JmongoQuery)
+   */
+  public Flux<RawBsonDocument> queryRaw(Class<?> clazz, Publisher<Bson> filter$, JmongoQuery query) {
+    final var collection =
+        database(clazz).getCollection(collectionName(clazz), RawBsonDocument.class);
+    return find(collection, Flux.merge(filter$, DELETED_FILTER$), query);
+  }
+
+  public Flux<RawBsonDocument> queryRaw(Class<?> clazz, Publisher<Bson> filter$) {
+    return queryRaw(clazz, filter$, JmongoQuery.of());
   }
 
   public <T> Flux<T> query(Class<T> clazz, Publisher<Bson> filter$) {
-    return Flux.defer(
-        () -> findPublisher(entityCollection(clazz), Flux.merge(filter$, DELETED_FILTER$)));
+    return query(clazz, filter$, JmongoQuery.of());
   }
 
   public <T> Flux<T> query(Class<T> clazz, Stream<Bson> stream) {
@@ -221,12 +466,124 @@ public class Jmongo {
   }
 
   public <T> Flux<T> query(Class<T> clazz, Publisher<Bson> filter$, int skip, int limit) {
-    return Flux.defer(
-        () ->
-            findPublisher(entityCollection(clazz), Flux.merge(filter$, DELETED_FILTER$))
-                .skip(skip)
-                .limit(limit)
-                .batchSize(limit));
+    return query(clazz, filter$, JmongoQuery.of().setSkip(skip).setLimit(limit).setBatchSize(limit));
+  }
+
+  /**
+   * keyset 分页，按 sorts 加 _id 排序，从 cursor 之后取 limit 条；耗时与页数无关，深分页使用此方法代替 skip
+   *
+   * <p>排序字段为 null 或缺失的文档排在升序最前、降序最后；同一排序字段的值应当是同一类型
+   *
+   * @param cursor 上一页返回的游标，null 为第一页
+   * @return 下一页的游标在 {@link SeekPage#getCursor()}
+   */
+  public <T> Mono<SeekPage<T>> seek(
+      Class<T> clazz, Publisher<Bson> filter$, Collection<Sort> sorts, String cursor, int limit) {
+    Validate.isTrue(limit > 0, "limit");
+    final var keys = seekKeys(sorts);
+    final var sort = new BsonDocument();
+    keys.forEach((k, asc) -> sort.append(k, new BsonInt32(asc ? 1 : -1)));
+    final var after$ = Mono.justOrEmpty(cursor).map(it -> seekFilter(keys, decodeCursor(keys, it)));
+    return Flux.merge(filter$, DELETED_FILTER$, after$)
+        .collectList()
+        .flatMapMany(
+            filters ->
+                bsonDocumentCollection(clazz)
+                    .find(and(filters))
+                    .sort(sort)
+                    .limit(limit + 1)
+                    .batchSize(limit + 1))
+        .collectList()
+        .map(
+            list -> {
+              final var hasNext = list.size() > limit;
+              final var page = hasNext ? list.subList(0, limit) : list;
+              final var items =
+                  page.stream().map(it -> fromBsonDocument(it, clazz)).collect(toUnmodifiableList());
+              return new SeekPage<>(items, hasNext ? encodeCursor(keys, page.get(limit - 1)) : null);
+            });
+  }
+
+  public <T> Mono<SeekPage<T>> seek(
+      Class<T> clazz, Iterable<Bson> iterable, Collection<Sort> sorts, String cursor, int limit) {
+    return seek(clazz, Flux.fromIterable(iterable), sorts, cursor, limit);
+  }
+
+  /** @return 排序字段 -> 是否升序，_id 作为最后的唯一键 */
+  private static Map<String, Boolean> seekKeys(Collection<Sort> sorts) {
+    final var keys = new LinkedHashMap<String, Boolean>();
+    ofNullable(sorts).stream()
+        .flatMap(Collection::stream)
+        .forEach(it -> keys.putIfAbsent(it.getId(), it.getStart() == SortStart.asc));
+    keys.putIfAbsent(ID_COL, true);
+    return keys;
+  }
+
+  /** (k1 > v1) or (k1 = v1 and k2 > v2) or ... */
+  private static Bson seekFilter(Map<String, Boolean> keys, BsonDocument cursor) {
+    final var names = List.copyOf(keys.keySet());
+    final var filters = new ArrayList<Bson>(names.size());
+    for (var i = 0; i < names.size(); i++) {
+      final var name = names.get(i);
+      final var after = after(name, keys.get(name), cursor.get(name));
+      if (after.isEmpty()) {
+        continue;
+      }
+      final var conditions = new ArrayList<Bson>(i + 1);
+      for (var j = 0; j < i; j++) {
+        conditions.add(eq(names.get(j), cursor.get(names.get(j))));
+      }
+      conditions.add(after.get());
+      filters.add(and(conditions));
+    }
+    return or(filters);
+  }
+
+  /**
+   * 排序时 null（包括缺失）小于其他值，而 $gt/$lt 只比较同类型的值，null 需要单独处理
+   *
+   * @return 排在 value 之后的条件，没有时为空
+   */
+  private static Optional<Bson> after(String name, boolean asc, BsonValue value) {
+    if (value.isNull()) {
+      return asc ? Optional.of(ne(name, null)) : Optional.empty();
+    }
+    return Optional.of(asc ? gt(name, value) : or(lt(name, value), eq(name, null)));
+  }
+
+  private static String encodeCursor(Map<String, Boolean> keys, BsonDocument document) {
+    final var cursor = new BsonDocument();
+    keys.keySet().forEach(k -> cursor.append(k, path(document, k)));
+    final var buffer = new BasicOutputBuffer();
+    new BsonDocumentCodec()
+        .encode(new BsonBinaryWriter(buffer), cursor, EncoderContext.builder().build());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+  }
+
+  /** cursor 来自客户端，只接受标量值，避免文档、数组等被当作查询操作符 */
+  private static BsonDocument decodeCursor(Map<String, Boolean> keys, String cursor) {
+    final BsonDocument document;
+    try {
+      final var bytes = Base64.getUrlDecoder().decode(cursor);
+      document =
+          new BsonDocumentCodec()
+              .decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER_CONTEXT);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("cursor", e);
+    }
+    Validate.isTrue(
+        List.copyOf(document.keySet()).equals(List.copyOf(keys.keySet())),
+        "cursor 与排序不一致");
+    document.values().forEach(it -> Validate.isTrue(CURSOR_TYPES.contains(it.getBsonType()), "cursor"));
+    return document;
+  }
+
+  private static BsonValue path(BsonDocument document, String path) {
+    BsonValue value = document;
+    for (final var name : path.split("\\.")) {
+      value = value != null && value.isDocument() ? value.asDocument().get(name) : null;
+    }
+    return value == null ? BsonNull.VALUE : value;
   }
 
   public <T> Flux<T> query(Class<T> clazz, Stream<Bson> stream, int skip, int limit) {
@@ -255,11 +612,7 @@ public class Jmongo {
 
   public <T> Flux<T> autocomplete(Class<T> clazz, Publisher<Bson> filter$, int limit) {
     final var max = Math.max(limit, 10);
-    return Flux.defer(
-        () ->
-            findPublisher(entityCollection(clazz), Flux.merge(filter$, DELETED_FILTER$))
-                .limit(max)
-                .batchSize(max));
+    return query(clazz, filter$, JmongoQuery.of().setLimit(max).setBatchSize(max));
   }
 
   public <T> Flux<T> autocomplete(Class<T> clazz, Stream<Bson> stream, int limit) {
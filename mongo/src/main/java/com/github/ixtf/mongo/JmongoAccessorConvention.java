@@ -0,0 +1,255 @@
+package com.github.ixtf.mongo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ClassUtils;
+import org.bson.codecs.pojo.ClassModelBuilder;
+import org.bson.codecs.pojo.Convention;
+import org.bson.codecs.pojo.Conventions;
+import org.bson.codecs.pojo.InstanceCreator;
+import org.bson.codecs.pojo.PropertyAccessor;
+import org.bson.codecs.pojo.PropertyModel;
+import org.bson.codecs.pojo.PropertyModelBuilder;
+import org.bson.codecs.pojo.annotations.BsonCreator;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * PojoCodec 默认以反射读写属性、创建实例；此约定在创建 ClassModel 时为每个属性以 LambdaMetafactory 生成访问器，编解码时不再经过反射
+ *
+ * <p>与驱动选取的 getter / setter 一致：public、非 static 的 getX / isX / setX 方法。没有对应方法（如 public 字段）或无法生成时保留默认的访问器，编码结果不变
+ *
+ * <p>须放在其他约定之后，见 {@link #CONVENTIONS}
+ */
+@Slf4j
+public class JmongoAccessorConvention implements Convention {
+  public static final Convention INSTANCE = new JmongoAccessorConvention();
+  /** 驱动的默认约定加上此约定 */
+  public static final List<Convention> CONVENTIONS = conventions();
+
+  private static List<Convention> conventions() {
+    final var ret = new ArrayList<>(Conventions.DEFAULT_CONVENTIONS);
+    ret.add(INSTANCE);
+    return List.copyOf(ret);
+  }
+
+  /** 与驱动一致：去掉前缀，首字母小写 */
+  private static String propertyName(String methodName, int prefixLength) {
+    final var chars = methodName.substring(prefixLength).toCharArray();
+    chars[0] = Character.toLowerCase(chars[0]);
+    return new String(chars);
+  }
+
+  private static boolean isGetter(Method method) {
+    if (method.getParameterCount() > 0 || method.getReturnType() == void.class) {
+      return false;
+    }
+    final var name = method.getName();
+    return prefixed(name, "get") || prefixed(name, "is");
+  }
+
+  private static boolean isSetter(Method method) {
+    return method.getParameterCount() == 1 && prefixed(method.getName(), "set");
+  }
+
+  private static boolean prefixed(String name, String prefix) {
+    return name.startsWith(prefix)
+        && name.length() > prefix.length()
+        && Character.isUpperCase(name.charAt(prefix.length()));
+  }
+
+  private static MethodHandles.Lookup lookup(Class<?> clazz) throws IllegalAccessException {
+    return MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Function<Object, Object> getter(Method method) throws Throwable {
+    final var lookup = lookup(method.getDeclaringClass());
+    final var handle = lookup.unreflect(method);
+    final var type =
+        MethodType.methodType(
+            ClassUtils.primitiveToWrapper(method.getReturnType()), method.getDeclaringClass());
+    return (Function<Object, Object>)
+        LambdaMetafactory.metafactory(
+                lookup,
+                "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                handle,
+                type)
+            .getTarget()
+            .invokeExact();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BiConsumer<Object, Object> setter(Method method) throws Throwable {
+    final var lookup = lookup(method.getDeclaringClass());
+    final var handle = lookup.unreflect(method);
+    final var type =
+        MethodType.methodType(
+            void.class,
+            method.getDeclaringClass(),
+            ClassUtils.primitiveToWrapper(method.getParameterTypes()[0]));
+    return (BiConsumer<Object, Object>)
+        LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                handle,
+                type)
+            .getTarget()
+            .invokeExact();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Supplier<T> constructor(Class<T> clazz) throws Throwable {
+    final var lookup = lookup(clazz);
+    final MethodHandle handle = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+    return (Supplier<T>)
+        LambdaMetafactory.metafactory(
+                lookup,
+                "get",
+                MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class),
+                handle,
+                MethodType.methodType(clazz))
+            .getTarget()
+            .invokeExact();
+  }
+
+  /** 有 BsonCreator 或没有 public 无参构造时由驱动创建实例 */
+  private static boolean hasDefaultCreator(Class<?> clazz) {
+    if (Modifier.isAbstract(clazz.getModifiers())
+        || Arrays.stream(clazz.getDeclaredConstructors())
+            .anyMatch(it -> it.isAnnotationPresent(BsonCreator.class))
+        || Arrays.stream(clazz.getDeclaredMethods())
+            .anyMatch(it -> it.isAnnotationPresent(BsonCreator.class))) {
+      return false;
+    }
+    return Arrays.stream(clazz.getConstructors()).anyMatch(it -> it.getParameterCount() == 0);
+  }
+
+  @Override
+  public void apply(ClassModelBuilder<?> classModelBuilder) {
+    final var clazz = classModelBuilder.getType();
+    final var getters = new HashMap<String, Method>();
+    final var setters = new HashMap<String, List<Method>>();
+    for (final var method : clazz.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers()) || method.isBridge()) {
+        continue;
+      }
+      final var name = method.getName();
+      if (isGetter(method)) {
+        getters.putIfAbsent(propertyName(name, name.startsWith("is") ? 2 : 3), method);
+      } else if (isSetter(method)) {
+        setters.computeIfAbsent(propertyName(name, 3), k -> new ArrayList<>()).add(method);
+      }
+    }
+    for (final var builder : classModelBuilder.getPropertyModelBuilders()) {
+      accessor(clazz, builder, getters, setters);
+    }
+    if (hasDefaultCreator(clazz)) {
+      instanceCreator(classModelBuilder);
+    }
+  }
+
+  private <T> void accessor(
+      Class<?> clazz,
+      PropertyModelBuilder<T> builder,
+      Map<String, Method> getters,
+      Map<String, List<Method>> setters) {
+    final var name = builder.getName();
+    final var getterMethod = getters.get(name);
+    final var setterMethod =
+        setters.getOrDefault(name, List.of()).stream()
+            .filter(
+                it ->
+                    getterMethod == null
+                        || it.getParameterTypes()[0] == getterMethod.getReturnType())
+            .findFirst()
+            .orElse(null);
+    if (getterMethod == null && setterMethod == null) {
+      return;
+    }
+    try {
+      final var getter = getterMethod == null ? null : getter(getterMethod);
+      final var setter = setterMethod == null ? null : setter(setterMethod);
+      builder.propertyAccessor(new Accessor<>(getter, setter, builder.getPropertyAccessor()));
+    } catch (Throwable e) {
+      log.warn("{}.{} 无法生成访问器，使用反射", clazz.getName(), name, e);
+    }
+  }
+
+  private <T> void instanceCreator(ClassModelBuilder<T> classModelBuilder) {
+    final var clazz = classModelBuilder.getType();
+    try {
+      final var constructor = constructor(clazz);
+      classModelBuilder.instanceCreatorFactory(() -> new Creator<>(constructor.get()));
+    } catch (Throwable e) {
+      log.warn("{} 无法生成构造器，使用反射", clazz.getName(), e);
+    }
+  }
+
+  /** 生成的 getter / setter，缺少的一侧交给驱动默认的访问器 */
+  static class Accessor<T> implements PropertyAccessor<T> {
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+    private final PropertyAccessor<T> delegate;
+
+    private Accessor(
+        Function<Object, Object> getter,
+        BiConsumer<Object, Object> setter,
+        PropertyAccessor<T> delegate) {
+      this.getter = getter;
+      this.setter = setter;
+      this.delegate = delegate;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <S> T get(S instance) {
+      return getter == null ? delegate.get(instance) : (T) getter.apply(instance);
+    }
+
+    @Override
+    public <S> void set(S instance, T value) {
+      if (setter == null) {
+        delegate.set(instance, value);
+      } else {
+        setter.accept(instance, value);
+      }
+    }
+  }
+
+  /** 与驱动对无参构造的处理一致：先创建实例，再逐个属性以访问器写入 */
+  private static class Creator<T> implements InstanceCreator<T> {
+    private final T instance;
+
+    private Creator(T instance) {
+      this.instance = instance;
+    }
+
+    @Override
+    public <S> void set(S value, PropertyModel<S> propertyModel) {
+      propertyModel.getPropertyAccessor().set(instance, value);
+    }
+
+    @Override
+    public T getInstance() {
+      return instance;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.github.ixtf.mongo;
+
+import com.github.ixtf.persistence.Page;
+import com.github.ixtf.persistence.Sort;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Facet;
+import org.apache.commons.lang3.Validate;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.github.ixtf.mongo.Jmongo.$count;
+import static com.github.ixtf.mongo.Jmongo.$limit;
+import static com.github.ixtf.mongo.Jmongo.$match;
+import static com.github.ixtf.mongo.Jmongo.$skip;
+import static com.github.ixtf.mongo.Jmongo.$sortOpt;
+import static java.util.stream.Collectors.toUnmodifiableList;
+
+/**
+ * 聚合管道：$match（含 deleted 条件）、自定义 stage，再按需排序、分页或计数
+ *
+ * <p>{@link #page(int, int)} 以 $facet 一次返回总数和当前页，结果是单个文档，受 16MB 限制，只适合普通分页大小。$sort 放在 $facet
+ * 之前，紧跟 $match 时可以使用索引，也不必在 facet 内对整个结果排序
+ */
+public class JmongoAggregate<T> {
+  private static final String TOTAL = "total";
+  private static final String ITEMS = "items";
+  private final Jmongo jmongo;
+  private final Class<T> clazz;
+  private final List<Publisher<Bson>> filters = new ArrayList<>();
+  private final List<Bson> stages = new ArrayList<>();
+  private Collection<Sort> sorts;
+
+  JmongoAggregate(Jmongo jmongo, Class<T> clazz) {
+    this.jmongo = jmongo;
+    this.clazz = clazz;
+  }
+
+  public JmongoAggregate<T> match(Publisher<Bson> filter$) {
+    filters.add(filter$);
+    return this;
+  }
+
+  public JmongoAggregate<T> match(Iterable<Bson> iterable) {
+    return match(Flux.fromIterable(iterable));
+  }
+
+  /** $match 之后、分页之前的 stage，如 $lookup、$addFields */
+  public JmongoAggregate<T> stage(Bson stage) {
+    stages.add(stage);
+    return this;
+  }
+
+  public JmongoAggregate<T> sort(Collection<Sort> sorts) {
+    this.sorts = sorts;
+    return this;
+  }
+
+  public Mono<Page<T>> page(int skip, int limit) {
+    Validate.isTrue(skip >= 0, "skip");
+    Validate.isTrue(limit > 0, "limit");
+    final var tail = new ArrayList<Bson>();
+    $sortOpt(sorts).ifPresent(tail::add);
+    tail.add(
+        Aggregates.facet(new Facet(TOTAL, $count()), new Facet(ITEMS, $skip(skip), $limit(limit))));
+    return pipeline(tail)
+        .flatMap(
+            pipeline ->
+                Mono.from(
+                    jmongo.bsonDocumentCollection(clazz).aggregate(pipeline).allowDiskUse(true)))
+        .map(this::page);
+  }
+
+  public Flux<T> list() {
+    return pipeline($sortOpt(sorts).stream().collect(toUnmodifiableList()))
+        .flatMapMany(
+            pipeline -> jmongo.entityCollection(clazz).aggregate(pipeline).allowDiskUse(true));
+  }
+
+  public Mono<Long> count() {
+    return pipeline(List.of($count()))
+        .flatMap(
+            pipeline -> Mono.from(jmongo.bsonDocumentCollection(clazz).aggregate(pipeline)))
+        .map(it -> it.getNumber("count").longValue())
+        .defaultIfEmpty(0L);
+  }
+
+  private Mono<List<Bson>> pipeline(List<Bson> tail) {
+    return $match(Flux.merge(filters))
+        .map(
+            match -> {
+              final var ret = new ArrayList<Bson>(1 + stages.size() + tail.size());
+              ret.add(match);
+              ret.addAll(stages);
+              ret.addAll(tail);
+              return ret;
+            });
+  }
+
+  private Page<T> page(BsonDocument document) {
+    final var total =
+        document.getArray(TOTAL).stream()
+            .findFirst()
+            .map(it -> it.asDocument().getNumber("count").longValue())
+            .orElse(0L);
+    final var items =
+        document.getArray(ITEMS).stream()
+            .map(BsonValue::asDocument)
+            .map(it -> jmongo.fromBsonDocument(it, clazz))
+            .collect(toUnmodifiableList());
+    return new Page<>(total, items);
+  }
+}
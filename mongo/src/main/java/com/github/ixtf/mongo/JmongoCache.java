@@ -0,0 +1,36 @@
+package com.github.ixtf.mongo;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.inject.ImplementedBy;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/** {@link Jmongo#find(Class, Object)} 的实体缓存，是否缓存及缓存策略由 {@link MongoEntity} 配置 */
+@ImplementedBy(CaffeineJmongoCache.class)
+public interface JmongoCache {
+
+  /**
+   * @param clazz entity class
+   * @param id entity id
+   * @param loader 未命中时从数据库加载
+   * @return 不缓存的实体直接调用 loader
+   */
+  <T> Mono<T> get(Class<T> clazz, Object id, Function<Object, Mono<T>> loader);
+
+  /** @return 已缓存（因此确定已持久化）的实体，不触发加载 */
+  default boolean contains(Class<?> clazz, Object id) {
+    return false;
+  }
+
+  void invalidate(Class<?> clazz, Object id);
+
+  void invalidateAll(Class<?> clazz);
+
+  /** @return 命中/未命中统计，不缓存的实体为空 */
+  Optional<CacheStats> stats(Class<?> clazz);
+
+  /** 应用关闭时、关闭 MongoClient 之前调用，释放 change stream 等后台订阅 */
+  default void close() {}
+}
@@ -0,0 +1,40 @@
+package com.github.ixtf.mongo;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+
+/**
+ * MongoEntityBase 子类的 PojoCodec，属性访问器由 {@link JmongoAccessorConvention} 生成，编码结果与默认的 PojoCodec 相同
+ *
+ * <p>其他类型返回 null，交给后续的 provider
+ */
+public class JmongoEntityCodecProvider implements CodecProvider {
+  private final CodecProvider delegate =
+      PojoCodecProvider.builder()
+          .automatic(true)
+          .conventions(JmongoAccessorConvention.CONVENTIONS)
+          .build();
+
+  @Override
+  public <T> Codec<T> get(final Class<T> clazz, final CodecRegistry registry) {
+    if (MongoEntityBase.class.isAssignableFrom(clazz)) {
+      return delegate.get(clazz, registry);
+    }
+    return null;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o != null && getClass() == o.getClass();
+  }
+
+  @Override
+  public int hashCode() {
+    return 0;
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.ixtf.mongo;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.bson.conversions.Bson;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.ixtf.mongo.Jmongo.DEFAULT_BATCH_SIZE;
+
+/** 查询选项，null 表示使用服务端默认值 */
+@Accessors(chain = true)
+@Getter
+@Setter
+public class JmongoQuery {
+  private Integer batchSize = DEFAULT_BATCH_SIZE;
+  private Boolean allowDiskUse = true;
+  private Bson projection;
+  private Bson sort;
+  private Bson hint;
+  private Duration maxTime;
+  private Collation collation;
+  private Integer skip;
+  private Integer limit;
+
+  public static JmongoQuery of() {
+    return new JmongoQuery();
+  }
+
+  /** @return 浅拷贝，修改拷贝不影响调用方传入的查询 */
+  public JmongoQuery copy() {
+    return of()
+        .setBatchSize(batchSize)
+        .setAllowDiskUse(allowDiskUse)
+        .setProjection(projection)
+        .setSort(sort)
+        .setHint(hint)
+        .setMaxTime(maxTime)
+        .setCollation(collation)
+        .setSkip(skip)
+        .setLimit(limit);
+  }
+
+  public <T> FindPublisher<T> apply(FindPublisher<T> publisher) {
+    var ret = publisher;
+    if (batchSize != null) {
+      ret = ret.batchSize(batchSize);
+    }
+    if (allowDiskUse != null) {
+      ret = ret.allowDiskUse(allowDiskUse);
+    }
+    if (projection != null) {
+      ret = ret.projection(projection);
+    }
+    if (sort != null) {
+      ret = ret.sort(sort);
+    }
+    if (hint != null) {
+      ret = ret.hint(hint);
+    }
+    if (maxTime != null) {
+      ret = ret.maxTime(maxTime.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    if (collation != null) {
+      ret = ret.collation(collation);
+    }
+    if (skip != null) {
+      ret = ret.skip(skip);
+    }
+    if (limit != null) {
+      ret = ret.limit(limit);
+    }
+    return ret;
+  }
+}
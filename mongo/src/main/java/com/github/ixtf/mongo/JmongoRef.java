@@ -4,16 +4,15 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import org.apache.commons.lang3.Validate;
 import org.bson.BsonDocument;
-import org.bson.BsonDocumentReader;
-import org.bson.codecs.DecoderContext;
-import org.bson.codecs.configuration.CodecRegistry;
 import reactor.core.publisher.Mono;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import static com.github.ixtf.guice.GuiceModule.getInstance;
-import static java.util.Optional.ofNullable;
 
 public final class JmongoRef implements Serializable {
     @Getter
@@ -32,22 +31,28 @@ public final class JmongoRef implements Serializable {
         this.databaseName = databaseName;
         this.bsonDocument$ = Mono.defer(() -> {
             final var jmongo = getInstance(Jmongo.class);
-            final var client = jmongo.client();
-            final var database = ofNullable(databaseName).map(client::getDatabase).orElseGet(jmongo::database);
-            final var collection = database.getCollection(collectionName, BsonDocument.class);
-            return jmongo.find(collection, id);
+            return jmongo.find(jmongo.collection(this), id);
         });
     }
 
-    public <T extends MongoEntityBase> Mono<T> toEntity(Class<T> clazz) {
-        return this.bsonDocument$.map(bsonDocument -> {
-            final var reader = new BsonDocumentReader(bsonDocument);
-            final var registry = getInstance(CodecRegistry.class);
-            final var codec = registry.get(clazz);
-            return codec.decode(reader, DecoderContext.builder().build());
+    /**
+     * 批量解析，避免逐个 {@link #toEntity(Class)} 产生 N+1 查询
+     *
+     * @see Jmongo#find(Collection)
+     */
+    public static <T extends MongoEntityBase> Mono<Map<JmongoRef, T>> toEntities(Collection<JmongoRef> refs, Class<T> clazz) {
+        final var jmongo = getInstance(Jmongo.class);
+        return jmongo.find(refs).map(map -> {
+            final var ret = new HashMap<JmongoRef, T>(map.size());
+            map.forEach((k, v) -> ret.put(k, jmongo.fromBsonDocument(v, clazz)));
+            return ret;
         });
     }
 
+    public <T extends MongoEntityBase> Mono<T> toEntity(Class<T> clazz) {
+        return this.bsonDocument$.map(bsonDocument -> getInstance(Jmongo.class).fromBsonDocument(bsonDocument, clazz));
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
@@ -0,0 +1,271 @@
+package com.github.ixtf.mongo;
+
+import com.mongodb.client.model.Projections;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import org.apache.commons.lang3.ClassUtils;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonProperty;
+import org.bson.conversions.Bson;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static com.github.ixtf.mongo.Jmongo.ID_COL;
+
+/**
+ * 只读视图（record 或带无参构造的类）的解码器，只解码视图中的字段，其余字段直接跳过
+ *
+ * <p>字段名与实体一致：id 或 {@link BsonId} 对应 _id，{@link BsonProperty} 指定字段名
+ *
+ * <p>泛型字段按声明的类型参数解码，支持 List / Set / Collection 和 key 为 String 的 Map，其余泛型类型在创建时拒绝；多个字段对应同一字段名时也在创建时拒绝
+ */
+public class JmongoViewCodec<T> implements Codec<T> {
+  private static final MethodType RECORD_TYPE = MethodType.methodType(Object.class, Object[].class);
+  private static final MethodType NO_ARGS_TYPE = MethodType.methodType(Object.class);
+  private static final MethodType SETTER_TYPE =
+      MethodType.methodType(void.class, Object.class, Object.class);
+  private final Class<T> viewClass;
+  private final boolean isRecord;
+  private final Map<String, Property> properties = new HashMap<>();
+  @Getter private final Bson projection;
+  /** record 的 canonical 构造，(Object[])Object；普通类的无参构造，()Object */
+  private final MethodHandle constructor;
+  /** record 构造参数的初始值，基本类型为默认值，缺少的字段不必再逐个补齐 */
+  private final Object[] defaults;
+
+  @SneakyThrows
+  public JmongoViewCodec(Class<T> viewClass, CodecRegistry registry) {
+    this.viewClass = viewClass;
+    isRecord = viewClass.isRecord();
+    final var lookup = MethodHandles.lookup();
+    if (isRecord) {
+      final var components = viewClass.getRecordComponents();
+      final var types = new Class<?>[components.length];
+      defaults = new Object[components.length];
+      for (var i = 0; i < components.length; i++) {
+        final var component = components[i];
+        types[i] = component.getType();
+        if (types[i].isPrimitive()) {
+          defaults[i] = Array.get(Array.newInstance(types[i], 1), 0);
+        }
+        final var field = viewClass.getDeclaredField(component.getName());
+        put(new Property(i, name(field), types[i], codec(component.getGenericType(), registry), null));
+      }
+      final var canonical = viewClass.getDeclaredConstructor(types);
+      canonical.setAccessible(true);
+      constructor =
+          lookup
+              .unreflectConstructor(canonical)
+              .asSpreader(Object[].class, components.length)
+              .asType(RECORD_TYPE);
+    } else {
+      defaults = null;
+      for (final var field : fields(viewClass)) {
+        field.setAccessible(true);
+        put(
+            new Property(
+                -1,
+                name(field),
+                field.getType(),
+                codec(field.getGenericType(), registry),
+                lookup.unreflectSetter(field).asType(SETTER_TYPE)));
+      }
+      final var noArgs = viewClass.getDeclaredConstructor();
+      noArgs.setAccessible(true);
+      constructor = lookup.unreflectConstructor(noArgs).asType(NO_ARGS_TYPE);
+    }
+    final var names = new ArrayList<>(properties.keySet());
+    projection =
+        names.contains(ID_COL)
+            ? Projections.include(names)
+            : Projections.fields(Projections.include(names), Projections.excludeId());
+  }
+
+  private static List<Field> fields(Class<?> clazz) {
+    final var ret = new ArrayList<Field>();
+    for (var c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (final var field : c.getDeclaredFields()) {
+        final var modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+          ret.add(field);
+        }
+      }
+    }
+    return ret;
+  }
+
+  private static String name(AnnotatedElement element) {
+    if (element.isAnnotationPresent(BsonId.class)) {
+      return ID_COL;
+    }
+    final var bsonProperty = element.getAnnotation(BsonProperty.class);
+    if (bsonProperty != null && !bsonProperty.value().isEmpty()) {
+      return bsonProperty.value();
+    }
+    final var name = ((Field) element).getName();
+    return "id".equals(name) ? ID_COL : name;
+  }
+
+  private static Codec<?> codec(Type type, CodecRegistry registry) {
+    if (type instanceof final Class<?> clazz) {
+      return registry.get(ClassUtils.primitiveToWrapper(clazz));
+    }
+    if (type instanceof final ParameterizedType parameterizedType
+        && parameterizedType.getRawType() instanceof final Class<?> raw) {
+      final var args = parameterizedType.getActualTypeArguments();
+      if (raw == List.class || raw == Collection.class || raw == Iterable.class) {
+        return new CollectionCodec(ArrayList::new, codec(args[0], registry));
+      }
+      if (raw == Set.class) {
+        return new CollectionCodec(LinkedHashSet::new, codec(args[0], registry));
+      }
+      if (raw == Map.class && args[0] == String.class) {
+        return new MapCodec(codec(args[1], registry));
+      }
+    }
+    throw new IllegalArgumentException("view 不支持的字段类型: " + type.getTypeName());
+  }
+
+  private static Object decode(Codec<?> codec, BsonReader reader, DecoderContext decoderContext) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    return decoderContext.decodeWithChildContext(codec, reader);
+  }
+
+  private void put(Property property) {
+    if (properties.putIfAbsent(property.name, property) != null) {
+      throw new IllegalArgumentException(
+          "view 字段名重复: " + viewClass.getName() + "." + property.name);
+    }
+  }
+
+  @SneakyThrows
+  @Override
+  public T decode(BsonReader reader, DecoderContext decoderContext) {
+    final var args = isRecord ? defaults.clone() : null;
+    final var instance = isRecord ? null : (Object) constructor.invokeExact();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      final var property = properties.get(reader.readName());
+      if (property == null) {
+        reader.skipValue();
+        continue;
+      }
+      final var value = decode(property.codec, reader, decoderContext);
+      // null 不覆盖基本类型的默认值
+      if (value == null && property.type.isPrimitive()) {
+        continue;
+      }
+      if (isRecord) {
+        args[property.index] = value;
+      } else {
+        property.setter.invokeExact(instance, value);
+      }
+    }
+    reader.readEndDocument();
+    return viewClass.cast(isRecord ? (Object) constructor.invokeExact(args) : instance);
+  }
+
+  @Override
+  public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+    throw new UnsupportedOperationException("view 只读");
+  }
+
+  @Override
+  public Class<T> getEncoderClass() {
+    return viewClass;
+  }
+
+  private static class Property {
+    private final int index;
+    private final String name;
+    private final Class<?> type;
+    private final Codec<?> codec;
+    private final MethodHandle setter;
+
+    private Property(int index, String name, Class<?> type, Codec<?> codec, MethodHandle setter) {
+      this.index = index;
+      this.name = name;
+      this.type = type;
+      this.codec = codec;
+      this.setter = setter;
+    }
+  }
+
+  /** 只解码，元素按声明的类型参数解码 */
+  private record CollectionCodec(Supplier<Collection<Object>> factory, Codec<?> element)
+      implements Codec<Collection<Object>> {
+    @Override
+    public Collection<Object> decode(BsonReader reader, DecoderContext decoderContext) {
+      final var ret = factory.get();
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        ret.add(JmongoViewCodec.decode(element, reader, decoderContext));
+      }
+      reader.readEndArray();
+      return ret;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Collection<Object> value, EncoderContext encoderContext) {
+      throw new UnsupportedOperationException("view 只读");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Class<Collection<Object>> getEncoderClass() {
+      return (Class<Collection<Object>>) (Class<?>) Collection.class;
+    }
+  }
+
+  private record MapCodec(Codec<?> value) implements Codec<Map<String, Object>> {
+    @Override
+    public Map<String, Object> decode(BsonReader reader, DecoderContext decoderContext) {
+      final var ret = new LinkedHashMap<String, Object>();
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        final var name = reader.readName();
+        ret.put(name, JmongoViewCodec.decode(value, reader, decoderContext));
+      }
+      reader.readEndDocument();
+      return ret;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Map<String, Object> value, EncoderContext encoderContext) {
+      throw new UnsupportedOperationException("view 只读");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Class<Map<String, Object>> getEncoderClass() {
+      return (Class<Map<String, Object>>) (Class<?>) Map.class;
+    }
+  }
+}
@@ -11,4 +11,14 @@ public @interface MongoEntity {
     String collection() default "";
 
     String database() default "";
+
+    /**
+     * @return {@link Jmongo#find(Class, Object)} 本地缓存的最大实体数，0 不缓存
+     */
+    long cacheSize() default 0;
+
+    /**
+     * @return 本地缓存写入后的过期秒数，0 不过期
+     */
+    long cacheTtl() default 0;
 }
@@ -1,88 +1,548 @@
 package com.github.ixtf.mongo;
 
 import com.github.ixtf.J;
+import com.github.ixtf.persistence.CommitResult;
 import com.github.ixtf.persistence.IEntity;
 import com.github.ixtf.persistence.runtime.AbstractUnitOfWork;
+import com.google.common.collect.Lists;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.ClientSession;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import jakarta.persistence.*;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.Validate;
 import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static com.github.ixtf.mongo.Jmongo.ID_COL;
+import static com.mongodb.MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL;
+import static com.mongodb.MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL;
+import static com.mongodb.client.model.Filters.in;
 
 /**
+ * 按集合分组，每组以有序 bulkWrite 批量提交，整个提交过程不阻塞调用线程
+ * <p>
+ * 默认不回滚，失败时保留已写入的部分，与逐条提交一致；需要原子性时以 {@link #transactionMode(TransactionMode)} 选择事务或补偿写入
+ *
  * @author jzb 2019-02-18
  */
 @Slf4j
 public class MongoUnitOfWork extends AbstractUnitOfWork {
+    public static final int DEFAULT_BULK_SIZE = 1_000;
+    public static final int DEFAULT_TRANSACTION_RETRIES = 3;
+    private static final BulkWriteOptions BULK_WRITE_OPTIONS = new BulkWriteOptions().ordered(true);
+    private static final BulkWriteOptions COMPENSATE_OPTIONS = new BulkWriteOptions().ordered(false);
+    private static final ReplaceOptions UPSERT_OPTIONS = new ReplaceOptions().upsert(true);
     private final Jmongo jmongo;
+    private final Mono<CommitResult> commit$ = Mono.defer(this::_commit).cache();
+    private int bulkSize = DEFAULT_BULK_SIZE;
+    private TransactionMode transactionMode = TransactionMode.NONE;
+    private int transactionRetries = DEFAULT_TRANSACTION_RETRIES;
     private boolean committed;
+    @Getter
+    private CommitResult commitResult;
 
     MongoUnitOfWork(Jmongo jmongo) {
         this.jmongo = jmongo;
     }
 
-    @Override
-    protected boolean exists(IEntity o) {
-        return jmongo.exists(o);
+    private static boolean hasErrorLabel(Throwable e, String label) {
+        return e instanceof final MongoException mongoException && mongoException.hasErrorLabel(label);
+    }
+
+    /**
+     * @param bulkSize 单次 bulkWrite 的最大操作数
+     * @return this
+     */
+    public MongoUnitOfWork bulkSize(int bulkSize) {
+        Validate.isTrue(bulkSize > 0, "bulkSize");
+        this.bulkSize = bulkSize;
+        return this;
+    }
+
+    /**
+     * 读取并登记为 clean，之后在同一个 UnitOfWork 中 registerDirty / registerSave 时只写入变化的字段，未变化时不写入
+     * <pre>{@code
+     * final var uow = jmongo.uow();
+     * uow.find(entityClass, id)
+     *     .doOnNext(it -> {
+     *       it.setName(name);
+     *       uow.registerDirty(it);
+     *     })
+     *     .then(uow.commitAsync())
+     * }</pre>
+     *
+     * @return 不存在时为空
+     */
+    public <T extends IEntity> Mono<T> find(Class<T> clazz, Object id) {
+        return jmongo.find(clazz, id).doOnNext(this::registerClean);
+    }
+
+    public MongoUnitOfWork transactionMode(TransactionMode transactionMode) {
+        this.transactionMode = Validate.notNull(transactionMode, "transactionMode");
+        return this;
     }
 
+    /**
+     * @param transactionRetries TransientTransactionError 和 UnknownTransactionCommitResult 的最大重试次数
+     * @return this
+     */
+    public MongoUnitOfWork transactionRetries(int transactionRetries) {
+        Validate.isTrue(transactionRetries >= 0, "transactionRetries");
+        this.transactionRetries = transactionRetries;
+        return this;
+    }
+
+    /**
+     * 与之前一致，已提交（包括已订阅 {@link #commitAsync()}）后再调用不再写入，只等待进行中的提交完成，也不抛出之前提交的失败，结果见 {@link #getCommitResult()}
+     */
     @Override
-    synchronized public MongoUnitOfWork commit() {
-        if (!committed) {
-            try {
-                handleNewList();
-                handleDirtyList();
-                handleDeleteList();
-            } finally {
-                committed = true;
-            }
+    public MongoUnitOfWork commit() {
+        final boolean repeated;
+        synchronized (this) {
+            repeated = committed;
+        }
+        final var result = commitAsync().block();
+        if (!repeated) {
+            result.throwIfFailed();
         }
         return this;
     }
 
-    private void handleNewList() {
-        for (final var entity : newList) {
-            final MongoCollection collection = jmongo.entityCollection(entity.getClass());
-            callbackStream(entity, PrePersist.class).forEach(it -> it.callback(entity));
+    @Override
+    public Mono<CommitResult> commitAsync() {
+        return commit$;
+    }
+
+    private Mono<CommitResult> _commit() {
+        final List<Write> writes;
+        synchronized (this) {
+            committed = true;
+            writes = new ArrayList<>(newMap.size() + saveMap.size() + dirtyMap.size() + deleteMap.size());
+            handleNewList(writes);
+            handleSaveList(writes);
+            handleDirtyList(writes);
+            handleDeleteList(writes);
+        }
+        if (writes.isEmpty()) {
+            return Mono.fromCallable(() -> commitResult = new CommitResult());
+        }
+        final var groups = new LinkedHashMap<Class<?>, List<Write>>();
+        writes.forEach(it -> groups.computeIfAbsent(it.entity.getClass(), k -> new ArrayList<>()).add(it));
+        return resolveTransactionMode(writes.size())
+                .flatMap(mode -> switch (mode) {
+                    case TRANSACTION -> transaction(groups, transactionRetries);
+                    case COMPENSATE -> compensate(groups);
+                    default -> bulkWrite(groups, null);
+                })
+                .doOnNext(result -> {
+                    commitResult = result;
+                    // 失败时可能已部分写入或已回滚，一律失效
+                    writes.forEach(it -> jmongo.cache().invalidate(J.actualClass(it.entity.getClass()), it.entity.getId()));
+                    writes.stream()
+                            .filter(it -> it.written)
+                            .forEach(it -> callback(it.entity, it.postCallback));
+                });
+    }
+
+    /**
+     * 单个写入本身是原子的，不需要事务或补偿
+     */
+    private Mono<TransactionMode> resolveTransactionMode(int size) {
+        if (size < 2) {
+            return Mono.just(TransactionMode.NONE);
+        }
+        if (transactionMode != TransactionMode.AUTO) {
+            return Mono.just(transactionMode);
+        }
+        return jmongo.transactionSupported().map(it -> it ? TransactionMode.TRANSACTION : TransactionMode.COMPENSATE);
+    }
+
+    private void handleNewList(List<Write> writes) {
+        for (final var entity : newMap.values()) {
+            callback(entity, PrePersist.class);
             if (J.isBlank(entity.getId())) {
                 entity.setId(new ObjectId().toHexString());
             }
-            Mono.from(collection.insertOne(entity)).block();
-            callbackStream(entity, PostPersist.class).forEach(it -> it.callback(entity));
+            writes.add(new Write(entity, new InsertOneModel<>(entity), PostPersist.class));
         }
     }
 
-    private void handleDirtyList() {
-        for (final var entity : dirtyList) {
-            final MongoCollection collection = jmongo.entityCollection(entity.getClass());
-            callbackStream(entity, PreUpdate.class).forEach(it -> it.callback(entity));
-            final var document = jmongo.toBsonDocument(entity);
-            final var id = document.get(ID_COL);
-            final var condition = new BsonDocument().append(ID_COL, id);
-            Mono.from(collection.replaceOne(condition, entity)).block();
-            callbackStream(entity, PostUpdate.class).forEach(it -> it.callback(entity));
+    /**
+     * 缓存中已有的实体确定已存在，按修改触发 PreUpdate；其余写入前无法确定是新增还是修改，不触发 Pre 回调
+     * <p>
+     * 写入后根据 upsert 结果触发 PostPersist 或 PostUpdate；依赖 PrePersist 初始化字段的实体应使用 registerNew，
+     * {@link BaseRepositoryJmongo#saveAsync} 对 create 和 build 新建的实体即如此
+     */
+    private void handleSaveList(List<Write> writes) {
+        for (final var entity : saveMap.values()) {
+            if (jmongo.cache().contains(J.actualClass(entity.getClass()), entity.getId())) {
+                callback(entity, PreUpdate.class);
+            }
+            final var model = new ReplaceOneModel<>(condition(entity), entity, UPSERT_OPTIONS);
+            writes.add(new Write(entity, model, PostUpdate.class, true));
         }
     }
 
-    private void handleDeleteList() {
-        for (final var entity : deleteList) {
-            final MongoCollection collection = jmongo.entityCollection(entity.getClass());
-            callbackStream(entity, PreRemove.class).forEach(it -> it.callback(entity));
-            final var document = jmongo.toBsonDocument(entity);
-            final var id = document.get(ID_COL);
-            final var condition = new BsonDocument().append(ID_COL, id);
-            Mono.from(collection.deleteOne(condition)).block();
-            callbackStream(entity, PostRemove.class).forEach(it -> it.callback(entity));
+    /**
+     * 有快照的实体未变化时跳过，变化时只写入变化的顶层字段
+     */
+    private void handleDirtyList(List<Write> writes) {
+        for (final var entity : dirtyMap.values()) {
+            final var snapshot = (BsonDocument) snapshotOf(entity);
+            if (snapshot == null) {
+                callback(entity, PreUpdate.class);
+                writes.add(new Write(entity, new ReplaceOneModel<>(condition(entity), entity), PostUpdate.class));
+            } else {
+                var document = jmongo.toBsonDocument(entity);
+                if (snapshot.equals(document)) {
+                    continue;
+                }
+                // PreUpdate 可能修改实体，没有回调时不必重新编码
+                if (callbacks(entity.getClass(), PreUpdate.class).length > 0) {
+                    callback(entity, PreUpdate.class);
+                    document = jmongo.toBsonDocument(entity);
+                }
+                final var condition = new BsonDocument(ID_COL, document.get(ID_COL));
+                diff(snapshot, document).ifPresent(update -> writes.add(new Write(entity, new UpdateOneModel<>(condition, update), PostUpdate.class)));
+            }
+        }
+    }
+
+    private Optional<BsonDocument> diff(BsonDocument snapshot, BsonDocument document) {
+        final var $set = new BsonDocument();
+        final var $unset = new BsonDocument();
+        document.forEach((k, v) -> {
+            if (!ID_COL.equals(k) && !v.equals(snapshot.get(k))) {
+                $set.append(k, v);
+            }
+        });
+        snapshot.keySet().stream().filter(k -> !document.containsKey(k)).forEach(k -> $unset.append(k, new BsonString("")));
+        final var update = new BsonDocument();
+        if (!$set.isEmpty()) {
+            update.append("$set", $set);
+        }
+        if (!$unset.isEmpty()) {
+            update.append("$unset", $unset);
         }
+        return Optional.of(update).filter(it -> !it.isEmpty());
     }
 
+    @Override
+    protected Object snapshot(IEntity o) {
+        return jmongo.toBsonDocument(o);
+    }
+
+    private void handleDeleteList(List<Write> writes) {
+        for (final var entity : deleteMap.values()) {
+            callback(entity, PreRemove.class);
+            writes.add(new Write(entity, new DeleteOneModel<>(condition(entity)), PostRemove.class));
+        }
+    }
+
+    private BsonDocument condition(IEntity entity) {
+        return new BsonDocument(ID_COL, jmongo.id(entity));
+    }
+
+    private BsonValue id(Write write) {
+        if (write.model instanceof final ReplaceOneModel<?> model) {
+            return ((BsonDocument) model.getFilter()).get(ID_COL);
+        }
+        if (write.model instanceof final UpdateOneModel<?> model) {
+            return ((BsonDocument) model.getFilter()).get(ID_COL);
+        }
+        if (write.model instanceof final DeleteOneModel<?> model) {
+            return ((BsonDocument) model.getFilter()).get(ID_COL);
+        }
+        return jmongo.id(write.entity);
+    }
+
+    /**
+     * 整个提交在一个事务中，出错即 abort；TransientTransactionError 时整体重试
+     */
+    private Mono<CommitResult> transaction(Map<Class<?>, List<Write>> groups, int retries) {
+        return Mono.usingWhen(
+                        jmongo.client().startSession(),
+                        session -> {
+                            groups.values().forEach(it -> it.forEach(Write::reset));
+                            session.startTransaction();
+                            return bulkWrite(groups, session).flatMap(result -> {
+                                if (result.isSuccess()) {
+                                    return commitTransaction(session, retries).thenReturn(result);
+                                }
+                                return abortTransaction(session, groups, result);
+                            });
+                        },
+                        session -> Mono.fromRunnable(session::close))
+                .flatMap(result -> {
+                    final var error = result.isSuccess() ? null : result.getFailures().get(0).getError();
+                    if (retries > 0 && hasErrorLabel(error, TRANSIENT_TRANSACTION_ERROR_LABEL)) {
+                        log.warn("transaction retry", error);
+                        return transaction(groups, retries - 1);
+                    }
+                    return Mono.just(result);
+                })
+                .onErrorResume(e -> {
+                    if (retries > 0 && hasErrorLabel(e, TRANSIENT_TRANSACTION_ERROR_LABEL)) {
+                        log.warn("transaction retry", e);
+                        return transaction(groups, retries - 1);
+                    }
+                    return Mono.fromCallable(() -> transactionFailed(groups, e));
+                });
+    }
+
+    /**
+     * 开启会话或 commitTransaction 失败：所有实体均未提交；重试后仍无法确定提交结果时不标记为已回滚
+     */
+    private CommitResult transactionFailed(Map<Class<?>, List<Write>> groups, Throwable e) {
+        log.error("transaction", e);
+        final var result = new CommitResult();
+        groups.values().forEach(it -> it.forEach(write -> {
+            write.written = false;
+            result.fail(write.entity, e, true);
+        }));
+        return hasErrorLabel(e, UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL) ? result : result.markRolledBack();
+    }
+
+    private Mono<Void> commitTransaction(ClientSession session, int retries) {
+        return Mono.from(session.commitTransaction())
+                .onErrorResume(e -> retries > 0 && hasErrorLabel(e, UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL), e -> {
+                    log.warn("commitTransaction retry", e);
+                    return commitTransaction(session, retries - 1);
+                });
+    }
+
+    private Mono<CommitResult> abortTransaction(ClientSession session, Map<Class<?>, List<Write>> groups, CommitResult result) {
+        return Mono.from(session.abortTransaction())
+                .onErrorResume(e -> {
+                    log.error("abortTransaction", e);
+                    return Mono.empty();
+                })
+                .then(Mono.fromCallable(() -> {
+                    groups.values().forEach(it -> it.forEach(write -> write.written = false));
+                    return result.markRolledBack();
+                }));
+    }
+
+    /**
+     * 单机不支持事务，先取出原文档，失败时按逆序以原文档覆盖/删除已写入的部分
+     * <p>
+     * 尽力而为：取出原文档到撤销之间其他写入者的修改会被原文档覆盖，并发写同一文档时应使用事务
+     */
+    private Mono<CommitResult> compensate(Map<Class<?>, List<Write>> groups) {
+        return Flux.fromIterable(groups.entrySet())
+                .concatMap(entry -> originals(entry.getKey(), entry.getValue()))
+                .then(bulkWrite(groups, null))
+                .flatMap(result -> {
+                    if (result.isSuccess()) {
+                        return Mono.just(result);
+                    }
+                    return Flux.fromIterable(groups.entrySet())
+                            .concatMap(entry -> undo(entry.getKey(), entry.getValue()))
+                            .then(Mono.fromCallable(result::markRolledBack));
+                });
+    }
+
+    private Mono<Void> originals(Class<?> clazz, List<Write> writes) {
+        final var byId = new HashMap<BsonValue, Write>();
+        writes.stream().filter(it -> !(it.model instanceof InsertOneModel)).forEach(it -> byId.put(id(it), it));
+        if (byId.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(Lists.partition(List.copyOf(byId.keySet()), bulkSize))
+                .concatMap(ids -> jmongo.bsonDocumentCollection(clazz).find(in(ID_COL, ids)))
+                .doOnNext(document -> byId.get(document.get(ID_COL)).original = document)
+                .then();
+    }
+
+    private Mono<Void> undo(Class<?> clazz, List<Write> writes) {
+        final var models = new ArrayList<WriteModel<BsonDocument>>();
+        for (final var write : Lists.reverse(writes)) {
+            if (!write.written) {
+                continue;
+            }
+            final var condition = new BsonDocument(ID_COL, id(write));
+            if (write.original == null) {
+                models.add(new DeleteOneModel<>(condition));
+            } else {
+                models.add(new ReplaceOneModel<>(condition, write.original, UPSERT_OPTIONS));
+            }
+            write.written = false;
+        }
+        if (models.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(Lists.partition(models, bulkSize))
+                .concatMap(chunk -> jmongo.bsonDocumentCollection(clazz).bulkWrite(chunk, COMPENSATE_OPTIONS))
+                .onErrorResume(e -> {
+                    log.error("compensate " + clazz.getName(), e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * 保持原有顺序语义：任一批次失败后，其余写入均不再执行
+     */
+    private Mono<CommitResult> bulkWrite(Map<Class<?>, List<Write>> groups, ClientSession session) {
+        return Mono.defer(() -> {
+            final var result = new CommitResult();
+            final var error = new AtomicReference<Throwable>();
+            return Flux.fromIterable(groups.entrySet())
+                    .concatMap(entry -> {
+                        final MongoCollection collection = jmongo.entityCollection(entry.getKey());
+                        return Flux.fromIterable(Lists.partition(entry.getValue(), bulkSize)).concatMap(chunk -> {
+                            final var e = error.get();
+                            if (e != null) {
+                                chunk.forEach(it -> result.fail(it.entity, e, false));
+                                return Mono.empty();
+                            }
+                            return bulkWrite(collection, session, chunk, result).doOnNext(error::set);
+                        });
+                    })
+                    .then(Mono.fromCallable(() -> result));
+        });
+    }
+
+    /**
+     * @return 失败原因，成功时为空
+     */
+    private Mono<Throwable> bulkWrite(MongoCollection collection, ClientSession session, List<Write> chunk, CommitResult result) {
+        final List<WriteModel> models = Lists.transform(chunk, it -> it.model);
+        final Publisher<BulkWriteResult> publisher = session == null
+                ? collection.bulkWrite(models, BULK_WRITE_OPTIONS)
+                : collection.bulkWrite(session, models, BULK_WRITE_OPTIONS);
+        return Mono.from(publisher)
+                .doOnNext(bulkWriteResult -> {
+                    chunk.forEach(it -> it.written = true);
+                    count(bulkWriteResult, result);
+                    resolveUpserts(bulkWriteResult, chunk);
+                })
+                .then(Mono.<Throwable>empty())
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    count(e.getWriteResult(), result);
+                    resolveUpserts(e.getWriteResult(), chunk);
+                    // 只有 write concern 错误时服务端已执行所有写入，标记为已写入，补偿模式下才会撤销
+                    final var failedIndex = e.getWriteErrors().stream().mapToInt(BulkWriteError::getIndex).min().orElse(chunk.size());
+                    if (failedIndex == chunk.size()) {
+                        chunk.forEach(it -> {
+                            it.written = true;
+                            result.fail(it.entity, e, true);
+                        });
+                        return Mono.just(e);
+                    }
+                    for (var i = 0; i < chunk.size(); i++) {
+                        final var write = chunk.get(i);
+                        if (i < failedIndex) {
+                            write.written = true;
+                        } else {
+                            result.fail(write.entity, e, i == failedIndex);
+                        }
+                    }
+                    return Mono.just(e);
+                })
+                .onErrorResume(e -> {
+                    chunk.forEach(it -> result.fail(it.entity, e, true));
+                    return Mono.just(e);
+                });
+    }
+
+    private void resolveUpserts(BulkWriteResult bulkWriteResult, List<Write> chunk) {
+        if (bulkWriteResult != null && bulkWriteResult.wasAcknowledged()) {
+            for (final var upsert : bulkWriteResult.getUpserts()) {
+                final var write = chunk.get(upsert.getIndex());
+                if (write.upsert) {
+                    write.postCallback = PostPersist.class;
+                }
+            }
+        }
+    }
+
+    private void count(BulkWriteResult bulkWriteResult, CommitResult result) {
+        if (bulkWriteResult != null && bulkWriteResult.wasAcknowledged()) {
+            result.add(bulkWriteResult.getInsertedCount(), bulkWriteResult.getMatchedCount(), bulkWriteResult.getModifiedCount(), bulkWriteResult.getDeletedCount());
+        }
+    }
+
+    /**
+     * 提交前调用则放弃已登记的实体；提交失败时事务回滚或补偿写入已在提交过程中完成
+     */
     @Override
     synchronized public MongoUnitOfWork rollback() {
-        // todo mongo 需要集群才支持事务，后续实现
+        if (!committed) {
+            newMap.clear();
+            saveMap.clear();
+            dirtyMap.clear();
+            cleanMap.clear();
+            deleteMap.clear();
+            snapshots.clear();
+        }
         return this;
     }
 
+    public enum TransactionMode {
+        /**
+         * 支持事务时使用事务，否则使用补偿写入（提交前额外查询一次原文档）
+         */
+        AUTO,
+        TRANSACTION,
+        COMPENSATE,
+        /**
+         * 默认，不回滚，失败时保留已写入的部分
+         */
+        NONE,
+    }
+
+    private static class Write {
+        private final IEntity entity;
+        private final WriteModel model;
+        private final Class<? extends Annotation> defaultPostCallback;
+        private final boolean upsert;
+        private Class<? extends Annotation> postCallback;
+        private boolean written;
+        private BsonDocument original;
+
+        private Write(IEntity entity, WriteModel model, Class<? extends Annotation> postCallback, boolean upsert) {
+            this.entity = entity;
+            this.model = model;
+            this.defaultPostCallback = postCallback;
+            this.postCallback = postCallback;
+            this.upsert = upsert;
+        }
+
+        private Write(IEntity entity, WriteModel model, Class<? extends Annotation> postCallback) {
+            this(entity, model, postCallback, false);
+        }
+
+        private void reset() {
+            written = false;
+            postCallback = defaultPostCallback;
+        }
+    }
+
 }
@@ -3,6 +3,7 @@ package com.github.ixtf.mongo;
 import com.github.ixtf.data.EntityDTO;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface RepositoryJmongo<T extends MongoEntityBase> {
     /**
@@ -39,6 +40,16 @@ public interface RepositoryJmongo<T extends MongoEntityBase> {
 
     void update(T entity);
 
+    /**
+     * 非阻塞插入，可在 event loop 上调用
+     *
+     * @param entity entity
+     * @return entity
+     */
+    Mono<T> insertAsync(T entity);
+
+    Mono<T> updateAsync(T entity);
+
     default void save(T entity) {
         if (exists(entity)) {
             update(entity);
@@ -47,6 +58,8 @@ public interface RepositoryJmongo<T extends MongoEntityBase> {
         }
     }
 
+    Mono<T> saveAsync(T entity);
+
     T find(String id);
 
     default T find(EntityDTO o) {
@@ -55,6 +68,8 @@ public interface RepositoryJmongo<T extends MongoEntityBase> {
 
     void delete(T t);
 
+    Mono<T> deleteAsync(T entity);
+
     default void delete(String id) {
         delete(find(id));
     }
@@ -71,5 +86,13 @@ public interface RepositoryJmongo<T extends MongoEntityBase> {
 
     Flux<T> list();
 
+    /**
+     * 只查询视图中的字段
+     *
+     * @param viewClass record 或带无参构造的类
+     * @return view
+     */
+    <V> Flux<V> list(Class<V> viewClass);
+
     MongoCollection<T> entityCollection();
 }
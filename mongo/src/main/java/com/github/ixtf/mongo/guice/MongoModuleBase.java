@@ -1,6 +1,8 @@
 package com.github.ixtf.mongo.guice;
 
 import com.github.ixtf.data.EntityDTO;
+import com.github.ixtf.mongo.JmongoAccessorConvention;
+import com.github.ixtf.mongo.JmongoEntityCodecProvider;
 import com.github.ixtf.mongo.JmongoRefCodecProvider;
 import com.github.ixtf.mongo.MongoEntityLoggable;
 import com.google.inject.AbstractModule;
@@ -10,10 +12,12 @@ import com.mongodb.MongoClientSettings;
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoClients;
 import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
 
 import static com.mongodb.MongoClientSettings.getDefaultCodecRegistry;
+import static java.util.Optional.ofNullable;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
@@ -25,14 +29,25 @@ public abstract class MongoModuleBase extends AbstractModule {
 
     protected abstract CodecRegistry codecRegistry();
 
+    /**
+     * 优先于 {@link #codecRegistry()}，默认以生成的访问器编解码 MongoEntityBase 子类；返回 null 则全部交给 codecRegistry()
+     */
+    protected CodecProvider entityCodecProvider() {
+        return new JmongoEntityCodecProvider();
+    }
+
     @Singleton
     @Provides
     private CodecRegistry CodecRegistry() {
         final var jmongoRefCodecProvider = new JmongoRefCodecProvider();
         final var pojoCodecProvider = PojoCodecProvider.builder()
+                .conventions(JmongoAccessorConvention.CONVENTIONS)
                 .register(EntityDTO.class, MongoEntityLoggable.Operator.class)
                 .build();
-        return fromRegistries(getDefaultCodecRegistry(), codecRegistry(), fromProviders(jmongoRefCodecProvider, pojoCodecProvider));
+        final var userCodecRegistry = ofNullable(entityCodecProvider())
+                .map(it -> fromRegistries(fromProviders(it), codecRegistry()))
+                .orElseGet(this::codecRegistry);
+        return fromRegistries(getDefaultCodecRegistry(), userCodecRegistry, fromProviders(jmongoRefCodecProvider, pojoCodecProvider));
     }
 
     @Singleton
@@ -0,0 +1,84 @@
+package com.github.ixtf.mongo;
+
+import com.google.inject.Guice;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CaffeineJmongoCacheTest {
+  private FakeJmongo jmongo;
+  private CaffeineJmongoCache cache;
+  private AtomicInteger loads;
+
+  @BeforeEach
+  void setUp() {
+    jmongo = new FakeJmongo();
+    cache =
+        Guice.createInjector(binder -> binder.bind(Jmongo.class).toInstance(jmongo))
+            .getInstance(CaffeineJmongoCache.class);
+    loads = new AtomicInteger();
+  }
+
+  private Mono<CachedItem> load(Object id) {
+    return Mono.fromCallable(
+        () -> {
+          loads.incrementAndGet();
+          final var item = new CachedItem();
+          item.setId((String) id);
+          item.setName("a");
+          return item;
+        });
+  }
+
+  @Test
+  void everyReadDecodesOwnCopy() {
+    final var first = cache.get(CachedItem.class, "a", this::load).block();
+    first.setName("changed");
+    final var second = cache.get(CachedItem.class, "a", this::load).block();
+
+    assertNotSame(first, second);
+    assertEquals("a", second.getName());
+    assertEquals(1, loads.get());
+    assertTrue(cache.contains(CachedItem.class, "a"));
+  }
+
+  @Test
+  void loadCompletingAfterInvalidationIsNotCached() {
+    final var sink = Sinks.<CachedItem>one();
+    final var pending = cache.get(CachedItem.class, "a", __ -> sink.asMono()).toFuture();
+    cache.invalidate(CachedItem.class, "a");
+    final var stale = new CachedItem();
+    stale.setId("a");
+    stale.setName("stale");
+    sink.tryEmitValue(stale);
+
+    assertEquals("stale", pending.join().getName());
+    assertFalse(cache.contains(CachedItem.class, "a"));
+    assertEquals("a", cache.get(CachedItem.class, "a", this::load).block().getName());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void closeStopsChangeStream() {
+    jmongo.transactionSupported = true;
+    cache.get(CachedItem.class, "a", this::load).block();
+    assertEquals(1, jmongo.watching.get());
+
+    cache.close();
+    assertEquals(0, jmongo.watching.get());
+    cache.get(CachedItem.class, "a", this::load).block();
+    cache.get(CachedItem.class, "a", this::load).block();
+    assertEquals(3, loads.get());
+  }
+
+  @MongoEntity(collection = "T_Item", cacheSize = 10)
+  public static class CachedItem extends Item {}
+}
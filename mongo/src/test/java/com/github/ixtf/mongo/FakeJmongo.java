@@ -0,0 +1,265 @@
+package com.github.ixtf.mongo;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.reactivestreams.client.AggregatePublisher;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import com.mongodb.reactivestreams.client.ClientSession;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/** 不连接数据库的 Jmongo，记录 bulkWrite / find / 事务调用，结果由测试指定 */
+class FakeJmongo extends Jmongo {
+  static final CodecRegistry REGISTRY =
+      fromRegistries(
+          MongoClientSettings.getDefaultCodecRegistry(),
+          fromProviders(
+              new JmongoEntityCodecProvider(),
+              new JmongoRefCodecProvider(),
+              PojoCodecProvider.builder().automatic(true).build()));
+
+  /** 每次 bulkWrite 的 (是否在事务中, 写入) */
+  final List<Map.Entry<Boolean, List<WriteModel<?>>>> bulkWrites = new ArrayList<>();
+  final List<Object> invalidated = new ArrayList<>();
+  /** 视为已缓存的 id */
+  final Set<Object> cached = new HashSet<>();
+  /** find 收到的条件和选项，调用名 -> 参数 */
+  final List<Map<String, Object>> finds = new ArrayList<>();
+  final List<String> transactions = new ArrayList<>();
+  /** aggregate 收到的管道 */
+  final List<List<Bson>> aggregates = new ArrayList<>();
+  Function<List<Bson>, List<BsonDocument>> onAggregate = __ -> List.of();
+  Function<List<WriteModel<?>>, Publisher<BulkWriteResult>> onBulkWrite = FakeJmongo::acknowledged;
+  Function<Bson, List<BsonDocument>> onFind = __ -> List.of();
+  Publisher<Void> onCommitTransaction = Mono.empty();
+  boolean transactionSupported;
+  /** watch 返回的 change stream，及当前的订阅数 */
+  final Sinks.Many<ChangeStreamDocument<BsonDocument>> changeStream =
+      Sinks.many().multicast().directBestEffort();
+  final AtomicInteger watching = new AtomicInteger();
+
+  /** insert 计入 inserted，upsert 的 replace 视为新增，其余视为已匹配 */
+  static Mono<BulkWriteResult> acknowledged(List<WriteModel<?>> models) {
+    var inserted = 0;
+    var matched = 0;
+    final var upserts = new ArrayList<BulkWriteUpsert>();
+    for (var i = 0; i < models.size(); i++) {
+      final var model = models.get(i);
+      if (model instanceof InsertOneModel) {
+        inserted++;
+      } else if (model instanceof ReplaceOneModel<?> replace
+          && replace.getReplaceOptions().isUpsert()) {
+        upserts.add(new BulkWriteUpsert(i, new BsonString(String.valueOf(i))));
+      } else if (model instanceof ReplaceOneModel || model instanceof UpdateOneModel) {
+        matched++;
+      }
+    }
+    return Mono.just(BulkWriteResult.acknowledged(inserted, matched, 0, matched, upserts));
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> T proxy(Class<T> clazz, BiFunction<String, Object[], Object> handler) {
+    return (T)
+        Proxy.newProxyInstance(
+            clazz.getClassLoader(),
+            new Class<?>[] {clazz},
+            (proxy, method, args) -> {
+              if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                  case "equals" -> proxy == args[0];
+                  case "hashCode" -> System.identityHashCode(proxy);
+                  default -> clazz.getSimpleName();
+                };
+              }
+              return handler.apply(method.getName(), args == null ? new Object[0] : args);
+            });
+  }
+
+  @Override
+  public CodecRegistry getCodecRegistry() {
+    return REGISTRY;
+  }
+
+  @Override
+  public JmongoCache cache() {
+    return new JmongoCache() {
+      @Override
+      public <T> Mono<T> get(Class<T> clazz, Object id, Function<Object, Mono<T>> loader) {
+        return loader.apply(id);
+      }
+
+      @Override
+      public boolean contains(Class<?> clazz, Object id) {
+        return cached.contains(id);
+      }
+
+      @Override
+      public void invalidate(Class<?> clazz, Object id) {
+        invalidated.add(id);
+      }
+
+      @Override
+      public void invalidateAll(Class<?> clazz) {}
+
+      @Override
+      public Optional<CacheStats> stats(Class<?> clazz) {
+        return Optional.empty();
+      }
+    };
+  }
+
+  @Override
+  public Mono<Boolean> transactionSupported() {
+    return Mono.just(transactionSupported);
+  }
+
+  @Override
+  public MongoClient client() {
+    return proxy(
+        MongoClient.class,
+        (name, args) -> {
+          if (!"startSession".equals(name)) {
+            throw new UnsupportedOperationException(name);
+          }
+          return Mono.just(session());
+        });
+  }
+
+  private ClientSession session() {
+    return proxy(
+        ClientSession.class,
+        (name, args) -> {
+          transactions.add(name);
+          return switch (name) {
+            case "commitTransaction" -> onCommitTransaction;
+            case "abortTransaction" -> Mono.empty();
+            default -> null;
+          };
+        });
+  }
+
+  @Override
+  public <T> MongoCollection<T> entityCollection(Class<T> clazz) {
+    return fakeCollection(clazz);
+  }
+
+  @Override
+  public <T> MongoCollection<BsonDocument> bsonDocumentCollection(Class<T> clazz) {
+    return fakeCollection(BsonDocument.class);
+  }
+
+  @Override
+  public MongoCollection<BsonDocument> collection(JmongoRef ref) {
+    return fakeCollection(BsonDocument.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> MongoCollection<T> fakeCollection(Class<?> documentClass) {
+    return proxy(
+        MongoCollection.class,
+        (name, args) ->
+            switch (name) {
+              case "bulkWrite" -> {
+                final var session = args[0] instanceof ClientSession;
+                final var models = (List<WriteModel<?>>) args[session ? 1 : 0];
+                bulkWrites.add(Map.entry(session, List.copyOf(models)));
+                yield onBulkWrite.apply(models);
+              }
+              case "find" -> find(args.length == 0 ? new BsonDocument() : (Bson) args[0], documentClass);
+              case "aggregate" -> {
+                final var pipeline = (List<Bson>) args[0];
+                aggregates.add(List.copyOf(pipeline));
+                yield results(AggregatePublisher.class, onAggregate.apply(pipeline), documentClass);
+              }
+              case "watch" -> proxy(
+                  ChangeStreamPublisher.class,
+                  (method, watchArgs) -> {
+                    if (!"subscribe".equals(method)) {
+                      throw new UnsupportedOperationException(method);
+                    }
+                    changeStream
+                        .asFlux()
+                        .doOnSubscribe(__ -> watching.incrementAndGet())
+                        .doOnCancel(watching::decrementAndGet)
+                        .subscribe((Subscriber<Object>) watchArgs[0]);
+                    return null;
+                  });
+              default -> throw new UnsupportedOperationException(name);
+            });
+  }
+
+  private FindPublisher<?> find(Bson filter, Class<?> documentClass) {
+    final var options = new LinkedHashMap<String, Object>();
+    options.put("filter", filter);
+    finds.add(options);
+    return find(options, documentClass);
+  }
+
+  /** allowDiskUse 等选项忽略，订阅时返回 documents，按集合的文档类型解码 */
+  @SuppressWarnings("unchecked")
+  private <P extends Publisher<?>> P results(
+      Class<P> publisherClass, List<BsonDocument> documents, Class<?> documentClass) {
+    return proxy(
+        publisherClass,
+        (name, args) -> {
+          if ("subscribe".equals(name)) {
+            Flux.fromIterable(documents)
+                .map(it -> documentClass == BsonDocument.class ? it : fromBsonDocument(it, documentClass))
+                .subscribe((Subscriber<Object>) args[0]);
+            return null;
+          }
+          return results(publisherClass, documents, documentClass);
+        });
+  }
+
+  /** sort / limit 等选项记录到 options，订阅时返回 onFind 的结果，按集合的文档类型解码 */
+  @SuppressWarnings("unchecked")
+  private FindPublisher<?> find(Map<String, Object> options, Class<?> documentClass) {
+    final var filter = (Bson) options.get("filter");
+    return proxy(
+        FindPublisher.class,
+        (name, args) -> {
+          if ("subscribe".equals(name)) {
+            Flux.fromIterable(onFind.apply(filter))
+                .map(it -> documentClass == BsonDocument.class ? it : fromBsonDocument(it, documentClass))
+                .subscribe((Subscriber<Object>) args[0]);
+            return null;
+          }
+          options.put(name, args.length == 1 ? args[0] : List.of(args));
+          return find(options, documentClass);
+        });
+  }
+}
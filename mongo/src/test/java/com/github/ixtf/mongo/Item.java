@@ -0,0 +1,67 @@
+package com.github.ixtf.mongo;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreRemove;
+import jakarta.persistence.PreUpdate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** 测试实体，按顺序记录触发的生命周期回调 */
+@MongoEntity(collection = "T_Item")
+public class Item extends MongoEntityBase {
+  private final List<String> events = new ArrayList<>();
+  private String name;
+
+  public static Item of(String id, String name) {
+    final var item = new Item();
+    item.setId(id);
+    item.setName(name);
+    return item;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  List<String> events() {
+    return events;
+  }
+
+  @PrePersist
+  private void prePersist() {
+    events.add("PrePersist");
+  }
+
+  @PostPersist
+  private void postPersist() {
+    events.add("PostPersist");
+  }
+
+  @PreUpdate
+  private void preUpdate() {
+    events.add("PreUpdate");
+  }
+
+  @PostUpdate
+  private void postUpdate() {
+    events.add("PostUpdate");
+  }
+
+  @PreRemove
+  private void preRemove() {
+    events.add("PreRemove");
+  }
+
+  @PostRemove
+  private void postRemove() {
+    events.add("PostRemove");
+  }
+}
@@ -0,0 +1,62 @@
+package com.github.ixtf.mongo;
+
+import com.github.ixtf.persistence.Sort;
+import com.github.ixtf.persistence.SortStart;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JmongoAggregateTest {
+  private FakeJmongo jmongo;
+
+  private static BsonDocument bson(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, FakeJmongo.REGISTRY);
+  }
+
+  @BeforeEach
+  void setUp() {
+    jmongo = new FakeJmongo();
+  }
+
+  @Test
+  void pageSortsBeforeFacet() {
+    final var sort = new Sort();
+    sort.setId("name");
+    sort.setStart(SortStart.asc);
+    jmongo.onAggregate =
+        __ ->
+            List.of(
+                new BsonDocument("total", new BsonArray(List.of(new BsonDocument("count", new BsonInt32(3)))))
+                    .append(
+                        "items",
+                        new BsonArray(List.of(jmongo.toBsonDocument(Item.of("a", "a"))))));
+    final var page =
+        jmongo
+            .aggregate(Item.class)
+            .stage(new BsonDocument("$addFields", new BsonDocument("x", new BsonInt32(1))))
+            .sort(List.of(sort))
+            .page(10, 5)
+            .block();
+
+    assertEquals(3, page.getTotal());
+    assertEquals("a", page.getItems().get(0).getName());
+    final var pipeline = jmongo.aggregates.get(0).stream().map(JmongoAggregateTest::bson).toList();
+    assertEquals(
+        List.of("$match", "$addFields", "$sort", "$facet"),
+        pipeline.stream().map(BsonDocument::getFirstKey).toList());
+    assertEquals(new BsonDocument("name", new BsonInt32(1)), pipeline.get(2).getDocument("$sort"));
+    assertEquals(
+        new BsonArray(
+            List.of(
+                new BsonDocument("$skip", new BsonInt32(10)),
+                new BsonDocument("$limit", new BsonInt32(5)))),
+        pipeline.get(3).getDocument("$facet").getArray("items"));
+  }
+}
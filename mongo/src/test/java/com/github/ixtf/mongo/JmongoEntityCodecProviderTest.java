@@ -0,0 +1,157 @@
+package com.github.ixtf.mongo;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.ClassModel;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JmongoEntityCodecProviderTest {
+  /** 驱动默认的反射 PojoCodec */
+  private static final CodecRegistry REFLECTIVE =
+      fromRegistries(
+          MongoClientSettings.getDefaultCodecRegistry(),
+          fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+
+  private static <T> BsonDocument encode(Codec<T> codec, T value) {
+    final var ret = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(ret), value, EncoderContext.builder().build());
+    return ret;
+  }
+
+  private static Order order() {
+    final var ret = new Order();
+    ret.setId("o1");
+    ret.setDeleted(true);
+    ret.setCount(3);
+    ret.setAmount(1.5);
+    ret.setPaid(true);
+    ret.setTags(List.of("a", "b"));
+    ret.setCreateDateTime(new Date(1_000));
+    ret.setItem(Item.of("i1", "n"));
+    return ret;
+  }
+
+  @Test
+  void encodesLikeReflectivePojoCodec() {
+    final var order = order();
+    final var expected = encode(REFLECTIVE.get(Order.class), order);
+    final var codec = FakeJmongo.REGISTRY.get(Order.class);
+
+    assertEquals(expected, encode(codec, order));
+
+    final var decoded =
+        codec.decode(new BsonDocumentReader(expected), DecoderContext.builder().build());
+    assertEquals(expected, encode(codec, decoded));
+    assertEquals(3, decoded.getCount());
+    assertTrue(decoded.isPaid());
+    assertTrue(decoded.isDeleted());
+    assertEquals("n", decoded.getItem().getName());
+  }
+
+  @Test
+  void missingFieldsKeepDefaults() {
+    final var decoded =
+        FakeJmongo.REGISTRY
+            .get(Order.class)
+            .decode(
+                new BsonDocumentReader(BsonDocument.parse("{_id: 'o1'}")),
+                DecoderContext.builder().build());
+
+    assertEquals("o1", decoded.getId());
+    assertEquals(0, decoded.getCount());
+    assertFalse(decoded.isPaid());
+    assertNull(decoded.getTags());
+  }
+
+  @Test
+  void accessorsAreGenerated() {
+    final var classModel =
+        ClassModel.builder(Order.class).conventions(JmongoAccessorConvention.CONVENTIONS).build();
+
+    for (final var name : List.of("id", "deleted", "count", "paid", "tags", "item")) {
+      assertTrue(
+          classModel.getPropertyModel(name).getPropertyAccessor()
+              instanceof JmongoAccessorConvention.Accessor,
+          name);
+    }
+  }
+
+  @Test
+  void otherTypesAreLeftToNextProvider() {
+    assertNull(new JmongoEntityCodecProvider().get(String.class, FakeJmongo.REGISTRY));
+  }
+
+  public static class Order extends MongoEntityBase {
+    private int count;
+    private double amount;
+    private boolean paid;
+    private List<String> tags;
+    private Date createDateTime;
+    private Item item;
+
+    public int getCount() {
+      return count;
+    }
+
+    public void setCount(int count) {
+      this.count = count;
+    }
+
+    public double getAmount() {
+      return amount;
+    }
+
+    public void setAmount(double amount) {
+      this.amount = amount;
+    }
+
+    public boolean isPaid() {
+      return paid;
+    }
+
+    public void setPaid(boolean paid) {
+      this.paid = paid;
+    }
+
+    public List<String> getTags() {
+      return tags;
+    }
+
+    public void setTags(List<String> tags) {
+      this.tags = tags;
+    }
+
+    public Date getCreateDateTime() {
+      return createDateTime;
+    }
+
+    public void setCreateDateTime(Date createDateTime) {
+      this.createDateTime = createDateTime;
+    }
+
+    public Item getItem() {
+      return item;
+    }
+
+    public void setItem(Item item) {
+      this.item = item;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.github.ixtf.mongo;
+
+import com.github.ixtf.persistence.Sort;
+import com.github.ixtf.persistence.SortStart;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.Base64;
+import java.util.List;
+
+import static com.github.ixtf.mongo.Jmongo.ID_COL;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JmongoTest {
+  private FakeJmongo jmongo;
+
+  @BeforeEach
+  void setUp() {
+    jmongo = new FakeJmongo();
+  }
+
+  @Test
+  void findRefsWithStringAndObjectIds() {
+    final var objectId = new ObjectId();
+    final var byObjectId = new JmongoRef(null, "T_Item", objectId.toHexString());
+    final var byString = new JmongoRef(null, "T_Item", "a");
+    final var missing = new JmongoRef(null, "T_Item", "b");
+    jmongo.onFind =
+        __ ->
+            List.of(
+                new BsonDocument(ID_COL, new BsonObjectId(objectId)),
+                new BsonDocument(ID_COL, new BsonString("a")));
+    final var found = jmongo.find(List.of(byObjectId, byString, missing, byString)).block();
+
+    assertEquals(2, found.size());
+    assertEquals(new BsonObjectId(objectId), found.get(byObjectId).get(ID_COL));
+    assertEquals(new BsonString("a"), found.get(byString).get(ID_COL));
+    assertEquals(1, jmongo.finds.size());
+  }
+
+  private static Sort sort(String id, SortStart start) {
+    final var sort = new Sort();
+    sort.setId(id);
+    sort.setStart(start);
+    return sort;
+  }
+
+  private static BsonDocument item(String id, String name) {
+    final var document = new BsonDocument(ID_COL, new BsonString(id));
+    if (name != null) {
+      document.append("name", new BsonString(name));
+    }
+    return document.append("deleted", BsonBoolean.FALSE);
+  }
+
+  /** 第二页查询条件中 cursor 之后的部分 */
+  private BsonDocument afterFilter(int find) {
+    final var filter =
+        ((Bson) jmongo.finds.get(find).get("filter"))
+            .toBsonDocument(BsonDocument.class, FakeJmongo.REGISTRY);
+    final var and = filter.getArray("$and");
+    return and.get(and.size() - 1).asDocument();
+  }
+
+  @Test
+  void seekCursorRoundTrip() {
+    final var sorts = List.of(sort("name", SortStart.desc));
+    jmongo.onFind = __ -> List.of(item("1", "c"), item("2", "b"), item("3", "a"));
+    final var first = jmongo.seek(Item.class, Flux.empty(), sorts, null, 2).block();
+
+    assertEquals(List.of("c", "b"), first.getItems().stream().map(Item::getName).toList());
+    assertNotNull(first.getCursor());
+    assertEquals(3, jmongo.finds.get(0).get("limit"));
+
+    jmongo.onFind = __ -> List.of(item("3", "a"));
+    final var second = jmongo.seek(Item.class, Flux.empty(), sorts, first.getCursor(), 2).block();
+
+    assertEquals(List.of("a"), second.getItems().stream().map(Item::getName).toList());
+    assertNull(second.getCursor());
+    final var name = new BsonString("b");
+    final var expected =
+        or(
+                and(or(lt("name", name), eq("name", null))),
+                and(eq("name", name), gt(ID_COL, new BsonString("2"))))
+            .toBsonDocument(BsonDocument.class, FakeJmongo.REGISTRY);
+    assertEquals(expected, afterFilter(1));
+  }
+
+  @Test
+  void seekAfterNullSortKey() {
+    final var sorts = List.of(sort("name", SortStart.asc));
+    jmongo.onFind = __ -> List.of(item("1", null), item("2", "a"));
+    final var first = jmongo.seek(Item.class, Flux.empty(), sorts, null, 1).block();
+    jmongo.seek(Item.class, Flux.empty(), sorts, first.getCursor(), 1).block();
+
+    final var expected =
+        or(and(ne("name", null)), and(eq("name", null), gt(ID_COL, new BsonString("1"))))
+            .toBsonDocument(BsonDocument.class, FakeJmongo.REGISTRY);
+    assertEquals(expected, afterFilter(1));
+  }
+
+  @Test
+  void seekRejectsOperatorInCursor() {
+    final var sorts = List.of(sort("name", SortStart.asc));
+    final var cursor =
+        new BsonDocument("name", new BsonDocument("$ne", BsonNull.VALUE))
+            .append(ID_COL, new BsonString("1"));
+    final var buffer = new BasicOutputBuffer();
+    new BsonDocumentCodec()
+        .encode(new BsonBinaryWriter(buffer), cursor, EncoderContext.builder().build());
+    final var encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> jmongo.seek(Item.class, Flux.empty(), sorts, encoded, 1).block());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> jmongo.seek(Item.class, Flux.empty(), sorts, "not-a-cursor", 1).block());
+  }
+}
@@ -0,0 +1,119 @@
+package com.github.ixtf.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.github.ixtf.mongo.Jmongo.ID_COL;
+import static com.mongodb.client.model.Projections.include;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JmongoViewCodecTest {
+  private static <T> T decode(Class<T> viewClass, BsonDocument document) {
+    return new JmongoViewCodec<>(viewClass, FakeJmongo.REGISTRY)
+        .decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+  }
+
+  private static BsonDocument item(String id) {
+    return new BsonDocument(ID_COL, new BsonString(id)).append("name", new BsonString(id));
+  }
+
+  @Test
+  void genericFieldsDecodeWithTypeArguments() {
+    final var document =
+        new BsonDocument(ID_COL, new BsonString("v"))
+            .append("items", new BsonArray(List.of(item("a"), new BsonNull(), item("b"))))
+            .append("tags", new BsonArray(List.of(new BsonString("x"), new BsonString("x"))))
+            .append("byName", new BsonDocument("a", item("a")))
+            .append("count", new BsonInt32(2));
+    final var view = decode(View.class, document);
+
+    assertEquals("v", view.id());
+    assertEquals(3, view.items().size());
+    assertTrue(view.items().get(0) instanceof Item);
+    assertEquals("a", view.items().get(0).getName());
+    assertNull(view.items().get(1));
+    assertEquals(Set.of("x"), view.tags());
+    assertEquals("a", view.byName().get("a").getName());
+    assertEquals(2, view.count());
+  }
+
+  @Test
+  void classViewDecodesGenericFields() {
+    final var view =
+        decode(
+            ClassView.class,
+            new BsonDocument("items", new BsonArray(List.of(item("a")))).append("other", new BsonInt32(1)));
+
+    assertEquals("a", view.items.get(0).getName());
+  }
+
+  @Test
+  void unsupportedGenericFieldIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new JmongoViewCodec<>(OptionalView.class, FakeJmongo.REGISTRY));
+  }
+
+  @Test
+  void missingAndNullPrimitivesKeepDefaults() {
+    final var view =
+        decode(PrimitiveView.class, new BsonDocument("count", new BsonNull()).append("name", new BsonString("a")));
+
+    assertEquals(new PrimitiveView("a", 0, false), view);
+    // 普通类保留字段的初始值
+    assertEquals(-1, decode(PrimitiveClassView.class, new BsonDocument("count", new BsonNull())).count);
+    // 默认值按类型共享，不影响后续解码
+    assertEquals(3, decode(PrimitiveView.class, new BsonDocument("count", new BsonInt32(3))).count());
+    assertEquals(0, decode(PrimitiveView.class, new BsonDocument()).count());
+  }
+
+  @Test
+  void duplicateNameIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new JmongoViewCodec<>(DuplicateView.class, FakeJmongo.REGISTRY));
+  }
+
+  @Test
+  void copyLeavesQueryUntouched() {
+    final Bson projection = include("name");
+    final var query = JmongoQuery.of().setProjection(projection).setLimit(10);
+    final var copy = query.copy().setProjection(include("items"));
+
+    assertSame(projection, query.getProjection());
+    assertEquals(10, copy.getLimit());
+  }
+
+  record View(String id, List<Item> items, Set<String> tags, Map<String, Item> byName, int count) {}
+
+  record OptionalView(Optional<String> name) {}
+
+  record PrimitiveView(String name, int count, boolean deleted) {}
+
+  record DuplicateView(String id, @BsonId String key) {}
+
+  static class PrimitiveClassView {
+    private int count = -1;
+  }
+
+  static class ClassView {
+    private List<Item> items;
+  }
+}
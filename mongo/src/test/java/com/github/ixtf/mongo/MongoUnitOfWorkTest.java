@@ -0,0 +1,333 @@
+package com.github.ixtf.mongo;
+
+import com.github.ixtf.persistence.CommitResult;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.ixtf.mongo.MongoUnitOfWork.TransactionMode.COMPENSATE;
+import static com.github.ixtf.mongo.MongoUnitOfWork.TransactionMode.TRANSACTION;
+import static com.mongodb.MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL;
+import static com.mongodb.MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MongoUnitOfWorkTest {
+  private FakeJmongo jmongo;
+
+  private static MongoException labeled(String label) {
+    final var e = new MongoException(label);
+    e.addLabel(label);
+    return e;
+  }
+
+  @BeforeEach
+  void setUp() {
+    jmongo = new FakeJmongo();
+  }
+
+  @Test
+  void defaultCommitDoesNotStartTransaction() {
+    jmongo.transactionSupported = true;
+    final var a = Item.of("a", "a");
+    final var b = Item.of("b", "b");
+    final var result = jmongo.uow().registerNew(a).registerNew(b).commitAsync().block();
+
+    assertTrue(result.isSuccess());
+    assertTrue(jmongo.transactions.isEmpty());
+    assertEquals(1, jmongo.bulkWrites.size());
+    assertFalse(jmongo.bulkWrites.get(0).getKey());
+    assertEquals(List.of("PrePersist", "PostPersist"), a.events());
+  }
+
+  @Test
+  void singleWriteSkipsTransaction() {
+    final var uow = jmongo.uow().transactionMode(TRANSACTION);
+    uow.registerNew(Item.of("a", "a"));
+
+    assertTrue(uow.commitAsync().block().isSuccess());
+    assertTrue(jmongo.transactions.isEmpty());
+  }
+
+  @Test
+  void transactionCommits() {
+    final var a = Item.of("a", "a");
+    final var uow = jmongo.uow().transactionMode(TRANSACTION);
+    uow.registerNew(a).registerNew(Item.of("b", "b"));
+    final var result = uow.commitAsync().block();
+
+    assertTrue(result.isSuccess());
+    assertEquals(List.of("startTransaction", "commitTransaction", "close"), jmongo.transactions);
+    assertTrue(jmongo.bulkWrites.get(0).getKey());
+    assertEquals(List.of("PrePersist", "PostPersist"), a.events());
+  }
+
+  @Test
+  void commitTransactionFailureIsReported() {
+    jmongo.onCommitTransaction = Mono.error(new MongoException("commit"));
+    final var a = Item.of("a", "a");
+    final var uow = jmongo.uow().transactionMode(TRANSACTION);
+    uow.registerNew(a).registerNew(Item.of("b", "b"));
+    final var result = uow.commitAsync().block();
+
+    assertFalse(result.isSuccess());
+    assertTrue(result.isRolledBack());
+    assertEquals(2, result.getFailures().size());
+    assertEquals(List.of("PrePersist"), a.events());
+    assertEquals(List.of("a", "b"), jmongo.invalidated);
+  }
+
+  @Test
+  void transientTransactionErrorRetries() {
+    final var attempts = new AtomicInteger();
+    jmongo.onCommitTransaction =
+        Mono.defer(
+            () ->
+                attempts.getAndIncrement() == 0
+                    ? Mono.error(labeled(TRANSIENT_TRANSACTION_ERROR_LABEL))
+                    : Mono.empty());
+    final var uow = jmongo.uow().transactionMode(TRANSACTION);
+    uow.registerNew(Item.of("a", "a")).registerNew(Item.of("b", "b"));
+
+    assertTrue(uow.commitAsync().block().isSuccess());
+    assertEquals(2, attempts.get());
+    assertEquals(2, jmongo.bulkWrites.size());
+  }
+
+  @Test
+  void unknownCommitResultIsNotRolledBack() {
+    jmongo.onCommitTransaction = Mono.error(labeled(UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL));
+    final var uow = jmongo.uow().transactionMode(TRANSACTION).transactionRetries(1);
+    uow.registerNew(Item.of("a", "a")).registerNew(Item.of("b", "b"));
+    final var result = uow.commitAsync().block();
+
+    assertFalse(result.isSuccess());
+    assertFalse(result.isRolledBack());
+    assertEquals(
+        2, jmongo.transactions.stream().filter("commitTransaction"::equals).count());
+  }
+
+  @Test
+  void compensateUndoesWrittenPart() {
+    final var attempts = new AtomicInteger();
+    jmongo.onBulkWrite =
+        models ->
+            attempts.getAndIncrement() == 0
+                ? FakeJmongo.acknowledged(models)
+                : Mono.error(new MongoException("second"));
+    final var a = Item.of("a", "a");
+    final var uow = jmongo.uow().transactionMode(COMPENSATE).bulkSize(1);
+    uow.registerNew(a).registerNew(Item.of("b", "b"));
+    final var result = uow.commitAsync().block();
+
+    assertFalse(result.isSuccess());
+    assertTrue(result.isRolledBack());
+    // insert a, insert b（失败）, 撤销 a
+    assertEquals(3, jmongo.bulkWrites.size());
+    assertTrue(jmongo.bulkWrites.get(0).getValue().get(0) instanceof InsertOneModel);
+    assertTrue(jmongo.bulkWrites.get(2).getValue().get(0) instanceof DeleteOneModel);
+    assertEquals(List.of("PrePersist"), a.events());
+  }
+
+  @Test
+  void saveOfUnknownEntityResolvesCallbackFromUpsert() {
+    final var inserted = Item.of("a", "a");
+    final var updated = Item.of("b", "b");
+    jmongo.onBulkWrite =
+        models ->
+            Mono.just(
+                BulkWriteResult.acknowledged(
+                    0, 1, 0, 1, List.of(new BulkWriteUpsert(0, new BsonString("a")))));
+    final var result = jmongo.uow().registerSave(inserted).registerSave(updated).commitAsync().block();
+
+    assertTrue(result.isSuccess());
+    assertTrue(jmongo.bulkWrites.get(0).getValue().get(0) instanceof ReplaceOneModel);
+    assertEquals(List.of("PostPersist"), inserted.events());
+    assertEquals(List.of("PostUpdate"), updated.events());
+  }
+
+  @Test
+  void saveOfCachedEntityIsUpdate() {
+    jmongo.cached.add("a");
+    final var item = Item.of("a", "a");
+    jmongo.onBulkWrite = models -> Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of()));
+    jmongo.uow().registerSave(item).commitAsync().block();
+
+    assertEquals(List.of("PreUpdate", "PostUpdate"), item.events());
+  }
+
+  @Test
+  void commitBatchesByBulkSize() {
+    final var uow = jmongo.uow().bulkSize(2);
+    for (var i = 0; i < 5; i++) {
+      uow.registerNew(Item.of("i" + i, "i" + i));
+    }
+    final var result = uow.commitAsync().block();
+
+    assertTrue(result.isSuccess());
+    assertEquals(5, result.getInsertedCount());
+    assertEquals(
+        List.of(2, 2, 1), jmongo.bulkWrites.stream().map(it -> it.getValue().size()).toList());
+  }
+
+  @Test
+  void failedBatchStopsRemainingWrites() {
+    final var attempts = new AtomicInteger();
+    jmongo.onBulkWrite =
+        models -> {
+          if (attempts.getAndIncrement() == 0) {
+            return FakeJmongo.acknowledged(models);
+          }
+          final var error = new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1);
+          return Mono.error(
+              new MongoBulkWriteException(
+                  BulkWriteResult.acknowledged(1, 0, 0, 0, List.of()), List.of(error), null, new ServerAddress()));
+        };
+    final var items = new ArrayList<Item>();
+    final var uow = jmongo.uow().bulkSize(2);
+    for (var i = 0; i < 5; i++) {
+      items.add(Item.of("i" + i, "i" + i));
+      uow.registerNew(items.get(i));
+    }
+    final var result = uow.commitAsync().block();
+
+    assertEquals(2, jmongo.bulkWrites.size());
+    assertEquals(3, result.getInsertedCount());
+    assertEquals(
+        List.of(items.get(3), items.get(4)),
+        result.getFailures().stream().map(CommitResult.Failure::getEntity).toList());
+    assertTrue(result.getFailures().get(0).isExecuted());
+    assertFalse(result.getFailures().get(1).isExecuted());
+    assertEquals(List.of("PrePersist", "PostPersist"), items.get(2).events());
+    assertEquals(List.of("PrePersist"), items.get(3).events());
+    assertEquals(List.of("PrePersist"), items.get(4).events());
+  }
+
+  @Test
+  void writeConcernErrorKeepsChunkWritten() {
+    final var attempts = new AtomicInteger();
+    jmongo.onBulkWrite =
+        models ->
+            attempts.getAndIncrement() == 0
+                ? Mono.error(
+                    new MongoBulkWriteException(
+                        BulkWriteResult.acknowledged(2, 0, 0, 0, List.of()),
+                        List.of(),
+                        new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out", new BsonDocument()),
+                        new ServerAddress()))
+                : FakeJmongo.acknowledged(models);
+    final var a = Item.of("a", "a");
+    final var uow = jmongo.uow().transactionMode(COMPENSATE);
+    uow.registerNew(a).registerNew(Item.of("b", "b"));
+    final var result = uow.commitAsync().block();
+
+    assertEquals(2, result.getFailures().size());
+    assertTrue(result.getFailures().stream().allMatch(CommitResult.Failure::isExecuted));
+    assertTrue(result.isRolledBack());
+    // 服务端已执行的两条写入均被撤销
+    assertEquals(2, jmongo.bulkWrites.size());
+    assertEquals(2, jmongo.bulkWrites.get(1).getValue().size());
+    assertTrue(jmongo.bulkWrites.get(1).getValue().stream().allMatch(DeleteOneModel.class::isInstance));
+    assertEquals(List.of("PrePersist"), a.events());
+  }
+
+  @Test
+  void repeatedCommitNeitherWritesNorRethrows() {
+    jmongo.onBulkWrite = models -> Mono.error(new MongoException("write"));
+    final var uow = jmongo.uow();
+    uow.registerNew(Item.of("a", "a"));
+
+    assertThrows(MongoException.class, uow::commit);
+    uow.commit();
+    assertEquals(1, jmongo.bulkWrites.size());
+    assertFalse(uow.getCommitResult().isSuccess());
+  }
+
+  @Test
+  void repositoryWritesAreDeferredToSubscription() {
+    final var repository = new BaseRepositoryJmongo<Item>() {};
+    repository.jmongo = jmongo;
+    final var item = Item.of("a", "a");
+    final var insert$ = repository.insertAsync(item);
+
+    assertTrue(jmongo.bulkWrites.isEmpty());
+    insert$.block();
+    insert$.block();
+    assertEquals(2, jmongo.bulkWrites.size());
+  }
+
+  @Test
+  void repositorySaveOfBuiltEntityIsInsert() {
+    final var repository = new BaseRepositoryJmongo<Item>() {};
+    repository.jmongo = jmongo;
+    final var item = repository.build("a");
+    repository.save(item);
+
+    assertTrue(jmongo.bulkWrites.get(0).getValue().get(0) instanceof InsertOneModel);
+    assertEquals(List.of("PrePersist", "PostPersist"), item.events());
+
+    // 已写入，再次 save 为修改
+    repository.save(item);
+    assertTrue(jmongo.bulkWrites.get(1).getValue().get(0) instanceof ReplaceOneModel);
+    assertEquals(List.of("PrePersist", "PostPersist", "PreUpdate", "PostUpdate"), item.events());
+  }
+
+  @Test
+  void repositorySaveOfCreatedEntityIsInsertAndOthersUpsert() {
+    final var repository = new BaseRepositoryJmongo<Item>() {};
+    repository.jmongo = jmongo;
+    final var created = repository.create();
+    repository.saveAsync(created).block();
+    final var unknown = Item.of("b", "b");
+    repository.saveAsync(unknown).block();
+
+    assertEquals(List.of("PrePersist", "PostPersist"), created.events());
+    final var upsert = (ReplaceOneModel<?>) jmongo.bulkWrites.get(1).getValue().get(0);
+    assertTrue(upsert.getReplaceOptions().isUpsert());
+  }
+
+  @Test
+  void foundEntityWritesOnlyChangedFields() {
+    final var document = jmongo.toBsonDocument(Item.of("a", "a"));
+    jmongo.onFind = __ -> List.of(document);
+    final var uow = jmongo.uow();
+    final var item = uow.find(Item.class, "a").block();
+    item.setName("b");
+    uow.registerDirty(item).commitAsync().block();
+
+    final var model = (UpdateOneModel<?>) jmongo.bulkWrites.get(0).getValue().get(0);
+    assertEquals(
+        new BsonDocument("$set", new BsonDocument("name", new BsonString("b"))), model.getUpdate());
+    assertEquals(List.of("PreUpdate", "PostUpdate"), item.events());
+  }
+
+  @Test
+  void unchangedFoundEntityIsNotWritten() {
+    jmongo.onFind = __ -> List.of(jmongo.toBsonDocument(Item.of("a", "a")));
+    final var uow = jmongo.uow();
+    final var item = uow.find(Item.class, "a").block();
+    uow.registerSave(item).commitAsync().block();
+
+    assertTrue(jmongo.bulkWrites.isEmpty());
+    assertTrue(item.events().isEmpty());
+  }
+}
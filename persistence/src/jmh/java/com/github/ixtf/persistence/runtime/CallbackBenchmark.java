@@ -0,0 +1,121 @@
+package com.github.ixtf.persistence.runtime;
+
+import com.github.ixtf.persistence.CommitResult;
+import com.github.ixtf.persistence.IEntity;
+import com.github.ixtf.persistence.UnitOfWork;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.PrePersist;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提交时每个实体的生命周期回调：绑定的 MethodHandle 循环调用，对比原先的 Stream + Method.invoke
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmark {
+    private final TestUnitOfWork unitOfWork = new TestUnitOfWork();
+    private final TestEntity entity = new TestEntity();
+    private final TestListener listener = new TestListener();
+    private Method selfMethod;
+    private Method listenerMethod;
+    private PersistenceCallback[] callbacks;
+
+    @Setup
+    public void setup() throws Exception {
+        selfMethod = TestEntity.class.getDeclaredMethod("prePersist");
+        listenerMethod = TestListener.class.getDeclaredMethod("prePersist", IEntity.class);
+        // 预先加载回调缓存，只测量调用
+        callbacks = unitOfWork.callbacks(TestEntity.class, PrePersist.class);
+    }
+
+    @Benchmark
+    public int methodInvoke() throws Exception {
+        selfMethod.invoke(entity);
+        listenerMethod.invoke(listener, entity);
+        return entity.count;
+    }
+
+    /**
+     * 只测量分派，不含按实体类查找回调
+     */
+    @Benchmark
+    public int methodHandle() {
+        for (final var callback : callbacks) {
+            callback.callback(entity);
+        }
+        return entity.count;
+    }
+
+    @Benchmark
+    public void callbackStream(Blackhole bh) {
+        unitOfWork.callbackStream(entity, PrePersist.class).forEach(it -> it.callback(entity));
+        bh.consume(entity.count);
+    }
+
+    @Benchmark
+    public int callback() {
+        unitOfWork.callback(entity, PrePersist.class);
+        return entity.count;
+    }
+
+    @EntityListeners(TestListener.class)
+    public static class TestEntity implements IEntity {
+        private int count;
+
+        @PrePersist
+        private void prePersist() {
+            count++;
+        }
+
+        @Override
+        public String getId() {
+            return null;
+        }
+
+        @Override
+        public void setId(String id) {
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return false;
+        }
+
+        @Override
+        public void setDeleted(boolean deleted) {
+        }
+    }
+
+    public static class TestListener {
+        @PrePersist
+        public void prePersist(IEntity o) {
+            ((TestEntity) o).count++;
+        }
+    }
+
+    private static class TestUnitOfWork extends AbstractUnitOfWork {
+        @Override
+        public UnitOfWork commit() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Mono<CommitResult> commitAsync() {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public UnitOfWork rollback() {
+            return this;
+        }
+    }
+}
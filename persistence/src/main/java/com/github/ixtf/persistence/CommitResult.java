@@ -0,0 +1,87 @@
+package com.github.ixtf.persistence;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Collections.synchronizedList;
+
+/**
+ * {@link UnitOfWork#commit()} 的执行结果，逐个实体记录失败原因
+ */
+public class CommitResult {
+    private final List<Failure> failures = synchronizedList(new ArrayList<>());
+    @Getter
+    private long insertedCount;
+    @Getter
+    private long matchedCount;
+    @Getter
+    private long modifiedCount;
+    @Getter
+    private long deletedCount;
+    /**
+     * 提交失败后已写入的部分是否已撤销（事务回滚或补偿写入）
+     */
+    @Getter
+    private boolean rolledBack;
+
+    public CommitResult add(long insertedCount, long matchedCount, long modifiedCount, long deletedCount) {
+        synchronized (this) {
+            this.insertedCount += insertedCount;
+            this.matchedCount += matchedCount;
+            this.modifiedCount += modifiedCount;
+            this.deletedCount += deletedCount;
+        }
+        return this;
+    }
+
+    public CommitResult fail(IEntity entity, Throwable error, boolean executed) {
+        failures.add(new Failure(entity, error, executed));
+        return this;
+    }
+
+    public CommitResult markRolledBack() {
+        rolledBack = true;
+        return this;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * 存在失败时抛出第一个失败的原因，保持与逐条提交时一致的异常语义
+     *
+     * @return this
+     */
+    @SneakyThrows
+    public CommitResult throwIfFailed() {
+        if (!isSuccess()) {
+            throw failures.get(0).getError();
+        }
+        return this;
+    }
+
+    @Getter
+    public static class Failure {
+        private final IEntity entity;
+        private final Throwable error;
+        /**
+         * false 表示之前的写入失败，此实体未被执行
+         */
+        private final boolean executed;
+
+        private Failure(IEntity entity, Throwable error, boolean executed) {
+            this.entity = entity;
+            this.error = error;
+            this.executed = executed;
+        }
+    }
+}
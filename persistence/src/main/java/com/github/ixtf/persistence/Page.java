@@ -0,0 +1,20 @@
+package com.github.ixtf.persistence;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 分页结果，总数与当前页同时返回
+ */
+@Getter
+public class Page<T> implements Serializable {
+    private final long total;
+    private final List<T> items;
+
+    public Page(long total, List<T> items) {
+        this.total = total;
+        this.items = items;
+    }
+}
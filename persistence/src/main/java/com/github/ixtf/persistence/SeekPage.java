@@ -0,0 +1,27 @@
+package com.github.ixtf.persistence;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * keyset 分页的一页，下一页以 cursor 继续查询
+ */
+@Getter
+public class SeekPage<T> implements Serializable {
+    private final List<T> items;
+    /**
+     * 不透明的游标，null 表示没有下一页
+     */
+    private final String cursor;
+
+    public SeekPage(List<T> items, String cursor) {
+        this.items = items;
+        this.cursor = cursor;
+    }
+
+    public boolean hasNext() {
+        return cursor != null;
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.ixtf.persistence;
 
+import reactor.core.publisher.Mono;
+
 /**
  * @author jzb 2019-02-18
  */
@@ -17,5 +19,12 @@ public interface UnitOfWork {
 
     UnitOfWork commit();
 
+    /**
+     * 非阻塞提交，调用线程不会等待写入完成
+     *
+     * @return 提交结果，重复订阅只会提交一次
+     */
+    Mono<CommitResult> commitAsync();
+
     UnitOfWork rollback();
 }
@@ -1,25 +1,28 @@
 package com.github.ixtf.persistence.runtime;
 
-import com.github.benmanes.caffeine.cache.CacheLoader;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.ixtf.J;
 import com.github.ixtf.persistence.IEntity;
 import com.github.ixtf.persistence.UnitOfWork;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
 import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Stream;
 
+import static java.util.Optional.ofNullable;
 import static org.apache.commons.lang3.reflect.MethodUtils.getMatchingMethod;
 import static org.apache.commons.lang3.reflect.MethodUtils.getMethodsListWithAnnotation;
 
@@ -27,25 +30,37 @@ import static org.apache.commons.lang3.reflect.MethodUtils.getMethodsListWithAnn
  * @author jzb 2019-02-18
  */
 public abstract class AbstractUnitOfWork implements UnitOfWork {
-    private static final LoadingCache<Class<? extends IEntity>, Multimap<Class<? extends Annotation>, PersistenceCallback>> cache = Caffeine.newBuilder().build(new CacheLoader<>() {
+    /**
+     * 生命周期注解，下标即回调数组的下标
+     */
+    private static final List<Class<? extends Annotation>> PHASES = List.of(PrePersist.class, PostPersist.class, PreUpdate.class, PostUpdate.class, PreRemove.class, PostRemove.class);
+    private static final PersistenceCallback[] EMPTY = new PersistenceCallback[0];
+    private static final MethodType CALLBACK_TYPE = MethodType.methodType(void.class, IEntity.class);
+    /**
+     * 每个实体类按生命周期分组的回调，类加载后只解析一次；按运行时的类查找，CGLIB 子类不必每次解析实际的类
+     */
+    private static final ClassValue<PersistenceCallback[][]> CALLBACKS = new ClassValue<>() {
+        @SneakyThrows
         @Override
-        public Multimap<Class<? extends Annotation>, PersistenceCallback> load(Class<? extends IEntity> entityClass) throws Exception {
-            final var multimap = ArrayListMultimap.<Class<? extends Annotation>, PersistenceCallback>create();
-            var stream = streamAnnotation().flatMap(it -> callbackStream(entityClass, it));
+        protected PersistenceCallback[][] computeValue(Class<?> type) {
+            final Class<? extends IEntity> entityClass = J.actualClass(type.asSubclass(IEntity.class));
+            final var listeners = new LinkedHashMap<Class<?>, Object>();
             final var entityListeners = entityClass.getAnnotation(EntityListeners.class);
             if (entityListeners != null) {
                 for (final var listenerClass : entityListeners.value()) {
-                    final var listener = listenerClass.getDeclaredConstructor().newInstance();
-                    final var stream1 = streamAnnotation().flatMap(it -> callbackStream(entityClass, it, listenerClass, listener));
-                    stream = Stream.concat(stream, stream1);
+                    listeners.put(listenerClass, listenerClass.getDeclaredConstructor().newInstance());
                 }
             }
-            stream.forEach(it -> multimap.put(it.getAnnotationClass(), it));
-            return multimap;
-        }
-
-        private Stream<Class<? extends Annotation>> streamAnnotation() {
-            return Stream.of(PrePersist.class, PostPersist.class, PreUpdate.class, PostUpdate.class, PreRemove.class, PostRemove.class).distinct();
+            final var result = new PersistenceCallback[PHASES.size()][];
+            for (var i = 0; i < result.length; i++) {
+                final var annotationClass = PHASES.get(i);
+                var stream = callbackStream(entityClass, annotationClass);
+                for (final var entry : listeners.entrySet()) {
+                    stream = Stream.concat(stream, callbackStream(entityClass, annotationClass, entry.getKey(), entry.getValue()));
+                }
+                result[i] = stream.toArray(PersistenceCallback[]::new);
+            }
+            return result;
         }
 
         private Stream<PersistenceCallback> callbackStream(Class<? extends IEntity> entityClass, Class<? extends Annotation> annotationClass) {
@@ -65,68 +80,148 @@ public abstract class AbstractUnitOfWork implements UnitOfWork {
                     })
                     .map(method -> new EntityListenerHandler(entityClass, annotationClass, listenerClass, listener, method));
         }
-    });
-    protected final List<IEntity> newList = Collections.synchronizedList(Lists.newArrayList());
-    protected final List<IEntity> dirtyList = Collections.synchronizedList(Lists.newArrayList());
-    protected final List<IEntity> cleanList = Collections.synchronizedList(Lists.newArrayList());
-    protected final List<IEntity> deleteList = Collections.synchronizedList(Lists.newArrayList());
-
-    protected abstract boolean exists(IEntity o);
+    };
+    /**
+     * identity map，按 (实体类, id) 登记，保持登记顺序；由 this 加锁保护
+     */
+    protected final Map<EntityKey, IEntity> newMap = new LinkedHashMap<>();
+    /**
+     * 无法确定是否已持久化的实体，由子类以 upsert 方式写入
+     */
+    protected final Map<EntityKey, IEntity> saveMap = new LinkedHashMap<>();
+    protected final Map<EntityKey, IEntity> dirtyMap = new LinkedHashMap<>();
+    protected final Map<EntityKey, IEntity> cleanMap = new LinkedHashMap<>();
+    protected final Map<EntityKey, IEntity> deleteMap = new LinkedHashMap<>();
+    /**
+     * registerClean 时的快照，提交时用于判断 dirty 实体是否真的发生变化
+     */
+    protected final Map<EntityKey, Object> snapshots = new HashMap<>();
 
+    /**
+     * 不查询数据库判断是否存在，没有 id 的视为新增，已登记为 clean 的视为修改，其余延迟到提交时 upsert
+     */
     @Override
     synchronized public UnitOfWork registerSave(IEntity o) {
-        if (exists(o)) {
-            registerDirty(o);
-        } else {
-            registerNew(o);
+        if (J.isBlank(o.getId())) {
+            return registerNew(o);
+        }
+        final var key = EntityKey.of(o);
+        if (cleanMap.containsKey(key)) {
+            return registerDirty(o);
+        }
+        if (!newMap.containsKey(key) && !dirtyMap.containsKey(key)) {
+            saveMap.putIfAbsent(key, o);
         }
         return this;
     }
 
     @Override
     synchronized public UnitOfWork registerNew(IEntity o) {
-        if (!newList.contains(o)) {
-            newList.add(o);
+        final var key = EntityKey.of(o);
+        if (newMap.putIfAbsent(key, o) == null) {
+            saveMap.remove(key);
         }
         return this;
     }
 
     @Override
     synchronized public UnitOfWork registerDirty(IEntity o) {
-        if (!dirtyList.contains(o)) {
-            dirtyList.add(o);
+        final var key = EntityKey.of(o);
+        if (dirtyMap.putIfAbsent(key, o) == null) {
+            saveMap.remove(key);
         }
         return this;
     }
 
     @Override
     synchronized public UnitOfWork registerClean(IEntity o) {
-        if (!cleanList.contains(o)) {
-            cleanList.add(o);
+        final var key = EntityKey.of(o);
+        if (cleanMap.putIfAbsent(key, o) == null) {
+            ofNullable(snapshot(o)).ifPresent(it -> snapshots.put(key, it));
         }
         return this;
     }
 
     @Override
     synchronized public UnitOfWork registerDelete(IEntity o) {
-        if (!deleteList.contains(o)) {
-            deleteList.add(o);
-            newList.remove(o);
-            dirtyList.remove(o);
-            cleanList.remove(o);
+        final var key = EntityKey.of(o);
+        if (deleteMap.putIfAbsent(key, o) == null) {
+            newMap.remove(key);
+            saveMap.remove(key);
+            dirtyMap.remove(key);
+            cleanMap.remove(key);
+            snapshots.remove(key);
         }
         return this;
     }
 
-    @SneakyThrows
+    /**
+     * @param o entity
+     * @return 实体当前状态的快照，null 表示不做 dirty 检查
+     */
+    protected Object snapshot(IEntity o) {
+        return null;
+    }
+
+    synchronized protected Object snapshotOf(IEntity o) {
+        return snapshots.get(EntityKey.of(o));
+    }
+
+    /**
+     * 依次执行实体在该生命周期上的回调，提交循环中使用，不创建 Stream
+     */
+    protected void callback(IEntity o, Class<? extends Annotation> annotationClass) {
+        for (final var callback : callbacks(o.getClass(), annotationClass)) {
+            callback.callback(o);
+        }
+    }
+
+    protected PersistenceCallback[] callbacks(Class<? extends IEntity> entityClass, Class<? extends Annotation> annotationClass) {
+        final var i = PHASES.indexOf(annotationClass);
+        return i < 0 ? EMPTY : CALLBACKS.get(entityClass)[i];
+    }
+
     protected Stream<PersistenceCallback> callbackStream(IEntity o, Class<? extends Annotation> annotationClass) {
-        return callbackStream(J.actualClass(o.getClass()), annotationClass);
+        return callbackStream(o.getClass(), annotationClass);
     }
 
-    @SneakyThrows
     protected Stream<PersistenceCallback> callbackStream(Class<? extends IEntity> entityClass, Class<? extends Annotation> annotationClass) {
-        final Multimap<Class<? extends Annotation>, PersistenceCallback> multimap = cache.get(entityClass);
-        return multimap.get(annotationClass).stream();
+        return Arrays.stream(callbacks(entityClass, annotationClass));
+    }
+
+    /**
+     * 没有 id 的实体按引用区分
+     */
+    @EqualsAndHashCode
+    protected static final class EntityKey {
+        private final Class<?> entityClass;
+        private final Object id;
+
+        private EntityKey(Class<?> entityClass, Object id) {
+            this.entityClass = entityClass;
+            this.id = id;
+        }
+
+        public static EntityKey of(IEntity o) {
+            final var entityClass = J.actualClass(o.getClass());
+            final var id = o.getId();
+            return new EntityKey(entityClass, J.isBlank(id) ? new Identity(o) : id);
+        }
+
+        @RequiredArgsConstructor
+        private static final class Identity {
+            private final Object o;
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof final Identity identity && identity.o == o;
+            }
+
+            @Override
+            public int hashCode() {
+                return System.identityHashCode(o);
+            }
+        }
     }
 
     private static class EntitySelfHandler implements PersistenceCallback {
@@ -134,19 +229,23 @@ public abstract class AbstractUnitOfWork implements UnitOfWork {
         private final Class<? extends IEntity> entityClass;
         @Getter
         private final Class<? extends Annotation> annotationClass;
-        private final Method method;
+        /**
+         * (IEntity)void
+         */
+        private final MethodHandle handle;
 
+        @SneakyThrows
         private EntitySelfHandler(Class<? extends IEntity> entityClass, Class<? extends Annotation> annotationClass, Method method) {
             this.entityClass = entityClass;
             this.annotationClass = annotationClass;
-            this.method = method;
             method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method).asType(CALLBACK_TYPE);
         }
 
         @SneakyThrows
         @Override
         public void callback(IEntity o) {
-            method.invoke(o);
+            handle.invokeExact(o);
         }
     }
 
@@ -156,22 +255,24 @@ public abstract class AbstractUnitOfWork implements UnitOfWork {
         @Getter
         private final Class<? extends Annotation> annotationClass;
         private final Class<?> listenerClass;
-        private final Object listener;
-        private final Method method;
+        /**
+         * 已绑定 listener 的 (IEntity)void
+         */
+        private final MethodHandle handle;
 
+        @SneakyThrows
         private EntityListenerHandler(Class<? extends IEntity> entityClass, Class<? extends Annotation> annotationClass, Class<?> listenerClass, Object listener, Method method) {
             this.entityClass = entityClass;
             this.annotationClass = annotationClass;
             this.listenerClass = listenerClass;
-            this.listener = listener;
-            this.method = method;
             method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method).bindTo(listener).asType(CALLBACK_TYPE);
         }
 
         @SneakyThrows
         @Override
         public void callback(IEntity o) {
-            method.invoke(listener, o);
+            handle.invokeExact(o);
         }
     }
 